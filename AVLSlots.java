@@ -0,0 +1,353 @@
+import java.util.Arrays;
+
+/**
+ *
+ * AVLSlots
+ *
+ * The balancing core of IntAVLTree, LongAVLTree and BlockAVLTree: the nodes of one or more AVL trees
+ * in parallel primitive arrays, without their keys.
+ * Node i is left[i], right[i], parent[i], rank[i], size[i] and value[i],
+ * and each subclass keeps key[i] in an array of its own key type (a whole block of keys in BlockAVLTree).
+ * Slot 0 is the virtual leaf (rank -1, size 0), like the shared virtual leaf of AVLTree.
+ *
+ * Nothing here compares keys, the trees find where a key goes and this class
+ * links, removes, rotates and joins nodes by their positions.
+ * Released slots are kept in a free list linked through right[], and reused before growing.
+ * The arrays grow by half of their length when full.
+ *
+ */
+abstract class AVLSlots {
+	static final int VIRTUAL = 0;
+	static final int INITIAL_CAPACITY = 16;
+
+	Object[] value;
+	int[] left;
+	int[] right;
+	int[] parent;
+	int[] rank;
+	int[] size;
+	int rebalanced; // rebalancing operations done by the last insert, delete or join
+	private int used = 1; // slot 0 is the virtual leaf
+	private int free = VIRTUAL; // first released slot
+
+	AVLSlots(int capacity) {
+		this.value = new Object[capacity];
+		this.left = new int[capacity];
+		this.right = new int[capacity];
+		this.parent = new int[capacity];
+		this.rank = new int[capacity];
+		this.size = new int[capacity];
+		this.rank[VIRTUAL] = -1;
+	}
+
+	// grows the key array of the subclass to capacity
+	abstract void growKeys(int capacity);
+
+	// sets key[to] to key[from]
+	abstract void copyKey(int from, int to);
+
+	// returns a slot holding a new leaf with info i, its key is set by the caller
+	int allocate(Object i) {
+		int node;
+		if (this.free != VIRTUAL) {
+			node = this.free;
+			this.free = this.right[node];
+		} else {
+			if (this.used == this.left.length) {
+				this.grow();
+			}
+			node = this.used++;
+		}
+		this.value[node] = i;
+		this.left[node] = VIRTUAL;
+		this.right[node] = VIRTUAL;
+		this.parent[node] = VIRTUAL;
+		this.rank[node] = 0;
+		this.size[node] = 1;
+		return node;
+	}
+
+	// returns slot to the free list
+	void release(int node) {
+		this.value[node] = null;
+		this.right[node] = this.free;
+		this.free = node;
+	}
+
+	// returns the slots of the subtree of node to the free list
+	void releaseAll(int node) {
+		if (node == VIRTUAL) {
+			return;
+		}
+		this.releaseAll(this.left[node]);
+		this.releaseAll(this.right[node]);
+		this.release(node);
+	}
+
+	private void grow() {
+		int capacity = this.left.length + (this.left.length >> 1);
+		this.growKeys(capacity);
+		this.value = Arrays.copyOf(this.value, capacity);
+		this.left = Arrays.copyOf(this.left, capacity);
+		this.right = Arrays.copyOf(this.right, capacity);
+		this.parent = Arrays.copyOf(this.parent, capacity);
+		this.rank = Arrays.copyOf(this.rank, capacity);
+		this.size = Arrays.copyOf(this.size, capacity);
+	}
+
+	int leftmost(int node) {
+		while (this.left[node] != VIRTUAL) {
+			node = this.left[node];
+		}
+		return node;
+	}
+
+	int rightmost(int node) {
+		while (this.right[node] != VIRTUAL) {
+			node = this.right[node];
+		}
+		return node;
+	}
+
+	// returns node's successor, or VIRTUAL if node is the maximum
+	int successor(int node) {
+		if (this.right[node] != VIRTUAL) {
+			return this.leftmost(this.right[node]);
+		}
+		int parent = this.parent[node];
+		while (parent != VIRTUAL && this.right[parent] == node) {
+			node = parent;
+			parent = this.parent[parent];
+		}
+		return parent;
+	}
+
+	// returns node's predecessor, or VIRTUAL if node is the minimum
+	int predecessor(int node) {
+		if (this.left[node] != VIRTUAL) {
+			return this.rightmost(this.left[node]);
+		}
+		int parent = this.parent[node];
+		while (parent != VIRTUAL && this.left[parent] == node) {
+			node = parent;
+			parent = this.parent[parent];
+		}
+		return parent;
+	}
+
+	// sets node's parent, the virtual leaf has no parent
+	private void setParent(int node, int parent) {
+		if (node != VIRTUAL) {
+			this.parent[node] = parent;
+		}
+	}
+
+	// makes node the root of its own subtree and returns it
+	private int detach(int node) {
+		this.setParent(node, VIRTUAL);
+		return node;
+	}
+
+	// puts son instead of node under parent
+	private void replaceSon(int parent, int node, int son) {
+		if (parent != VIRTUAL) {
+			if (this.left[parent] == node) {
+				this.left[parent] = son;
+			} else {
+				this.right[parent] = son;
+			}
+		}
+		this.setParent(son, parent);
+	}
+
+	// sets node's rank and size from its sons, subclasses that keep more per subtree extend it
+	void update(int node) {
+		this.rank[node] = Math.max(this.rank[this.left[node]], this.rank[this.right[node]]) + 1;
+		this.size[node] = this.size[this.left[node]] + this.size[this.right[node]] + 1;
+	}
+
+	private int rotateRight(int node) {
+		int son = this.left[node];
+		this.replaceSon(this.parent[node], node, son);
+		this.left[node] = this.right[son];
+		this.setParent(this.right[son], node);
+		this.right[son] = node;
+		this.parent[node] = son;
+		this.update(node);
+		this.update(son);
+		this.rebalanced++;
+		return son;
+	}
+
+	private int rotateLeft(int node) {
+		int son = this.right[node];
+		this.replaceSon(this.parent[node], node, son);
+		this.right[node] = this.left[son];
+		this.setParent(this.left[son], node);
+		this.left[son] = node;
+		this.parent[node] = son;
+		this.update(node);
+		this.update(son);
+		this.rebalanced++;
+		return son;
+	}
+
+	/**
+	 * private int fixUp(int node)
+	 *
+	 * walks from node up to the root of its tree, updating ranks and sizes
+	 * and rotating where the rank difference of the sons became 2.
+	 * returns the root of the tree.
+	 */
+	private int fixUp(int node) {
+		int top = node;
+		while (node != VIRTUAL) {
+			int oldRank = this.rank[node];
+			this.update(node);
+			int balance = this.rank[this.left[node]] - this.rank[this.right[node]];
+			if (balance > 1) {
+				int son = this.left[node];
+				if (this.rank[this.left[son]] < this.rank[this.right[son]]) {
+					this.rotateLeft(son);
+				}
+				node = this.rotateRight(node);
+			} else if (balance < -1) {
+				int son = this.right[node];
+				if (this.rank[this.right[son]] < this.rank[this.left[son]]) {
+					this.rotateRight(son);
+				}
+				node = this.rotateLeft(node);
+			} else if (this.rank[node] != oldRank) { // promotion / demotion
+				this.rebalanced++;
+			}
+			top = node;
+			node = this.parent[node];
+		}
+		return top;
+	}
+
+	/**
+	 * int attach(int parent, int node, boolean bigger)
+	 *
+	 * puts the new leaf node under parent, as its right son if bigger, else as its left son,
+	 * and rebalances up to the root. returns the root of the tree.
+	 */
+	int attach(int parent, int node, boolean bigger) {
+		if (bigger) {
+			this.right[parent] = node;
+		} else {
+			this.left[parent] = node;
+		}
+		this.parent[node] = parent;
+		this.rebalanced = 0;
+		return this.fixUp(parent);
+	}
+
+	/**
+	 * int remove(int node)
+	 *
+	 * removes node from its tree and rebalances up to the root.
+	 * a node with 2 sons takes its successor's item, and the successor slot is removed instead.
+	 * returns the root of the tree, VIRTUAL if it is now empty.
+	 */
+	int remove(int node) {
+		if (this.left[node] != VIRTUAL && this.right[node] != VIRTUAL) {
+			int successor = this.leftmost(this.right[node]);
+			this.copyKey(successor, node);
+			this.value[node] = this.value[successor];
+			node = successor;
+		}
+		int son = (this.left[node] != VIRTUAL) ? this.left[node] : this.right[node];
+		int parent = this.parent[node];
+		this.replaceSon(parent, node, son);
+		this.release(node);
+		this.rebalanced = 0;
+		return (parent == VIRTUAL) ? son : this.fixUp(parent);
+	}
+
+	/**
+	 * void split(int node, int[] halves)
+	 *
+	 * splits the tree of node around node, which is released.
+	 * sets halves to the roots of the trees of the nodes before and after node.
+	 */
+	void split(int node, int[] halves) {
+		int smaller = this.detach(this.left[node]);
+		int bigger = this.detach(this.right[node]);
+		int son = node;
+		int parent = this.parent[node];
+		this.release(node);
+		while (parent != VIRTUAL) {
+			int next = this.parent[parent];
+			if (this.right[parent] == son) {
+				smaller = this.join(this.detach(this.left[parent]), parent, smaller);
+			} else {
+				bigger = this.join(bigger, parent, this.detach(this.right[parent]));
+			}
+			son = parent;
+			parent = next;
+		}
+		halves[0] = smaller;
+		halves[1] = bigger;
+	}
+
+	/**
+	 * int join(int smaller, int x, int bigger)
+	 *
+	 * joins the detached subtrees smaller, bigger and the single node x,
+	 * where keys(smaller) < key(x) < keys(bigger).
+	 * returns the root of the joined tree, in O(|rank(smaller) - rank(bigger)| + 1).
+	 */
+	int join(int smaller, int x, int bigger) {
+		int parent = VIRTUAL;
+		boolean onRight = false; // x goes under the right spine of smaller
+		if (this.rank[smaller] > this.rank[bigger] + 1) { // go down the right spine of smaller
+			int node = smaller;
+			while (this.rank[node] > this.rank[bigger] + 1) {
+				parent = node;
+				node = this.right[node];
+			}
+			smaller = node;
+			onRight = true;
+		} else if (this.rank[bigger] > this.rank[smaller] + 1) { // go down the left spine of bigger
+			int node = bigger;
+			while (this.rank[node] > this.rank[smaller] + 1) {
+				parent = node;
+				node = this.left[node];
+			}
+			bigger = node;
+		}
+		this.left[x] = smaller;
+		this.right[x] = bigger;
+		this.parent[x] = parent;
+		this.setParent(smaller, x);
+		this.setParent(bigger, x);
+		if (parent == VIRTUAL) {
+			this.update(x);
+			return x;
+		}
+		if (onRight) {
+			this.right[parent] = x;
+		} else {
+			this.left[parent] = x;
+		}
+		return this.fixUp(x);
+	}
+
+	// links the slots order[from..to), sorted by key, as a balanced subtree and returns its root
+	int build(int[] order, int from, int to) {
+		if (from >= to) {
+			return VIRTUAL;
+		}
+		int mid = (from + to) >>> 1;
+		int node = order[mid];
+		int smaller = this.build(order, from, mid);
+		int bigger = this.build(order, mid + 1, to);
+		this.left[node] = smaller;
+		this.right[node] = bigger;
+		this.setParent(smaller, node);
+		this.setParent(bigger, node);
+		this.update(node);
+		return node;
+	}
+}
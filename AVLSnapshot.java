@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * AVLSnapshot
+ *
+ * The on-disk format of AVLTree.writeSnapshot and AVLTree.load, all numbers big endian:
+ *
+ *   int magic ("AVLT"), int version, int n
+ *   n keys (int), in increasing order
+ *   n values, each an int length in bytes (-1 for null) followed by its UTF-8 bytes
+ *   int CRC32C of everything before it
+ *
+ * The keys are sorted, so loading needs no comparisons or rotations
+ * and the tree is rebuilt with AVLTree.fromSorted in O(n).
+ * Files are read through FileChannel.map, a window of at most 1GB at a time.
+ *
+ */
+final class AVLSnapshot {
+	static final int MAGIC = 0x41564C54;
+	static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long WINDOW_SIZE = 1L << 30;
+	private static final int HEADER_SIZE = 12;
+	private static final int CHECKSUM_SIZE = 4;
+
+	private AVLSnapshot() {
+	}
+
+	/**
+	 * static void write(AVLTree tree, Path path)
+	 *
+	 * writes the tree to a temporary file next to path, forces it to the disk
+	 * and moves it over path, so path has either the old snapshot or the new one.
+	 * the directory is forced after the move, so once this returns the new snapshot survives a crash.
+	 */
+	static void write(AVLTree tree, Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(tree.size());
+			AVLTree.Cursor cursor = tree.cursor();
+			for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+				out.putInt(cursor.key());
+			}
+			for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+				String value = cursor.value();
+				if (value == null) {
+					out.putInt(-1);
+				} else {
+					byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					out.putInt(bytes.length);
+					out.put(bytes);
+				}
+			}
+			out.finish();
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(path);
+	}
+
+	/**
+	 * static void forceDirectory(Path path)
+	 *
+	 * forces the directory that holds path to the disk, so files created, renamed
+	 * or replaced in it are still there after a crash. without it the rename of write
+	 * may be lost even though the bytes of the file were forced.
+	 */
+	static void forceDirectory(Path path) throws IOException {
+		try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	/**
+	 * static AVLTree read(Path path)
+	 *
+	 * maps the file, checks its checksum and header, reads the keys and values
+	 * and builds the tree from them.
+	 * throws IOException if the file is not a snapshot, of another version, or damaged.
+	 */
+	static AVLTree read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long end = channel.size() - CHECKSUM_SIZE;
+			if (end < HEADER_SIZE) {
+				throw new IOException(path + " is too short to be a snapshot");
+			}
+			if (checksum(channel, end) != channel.map(FileChannel.MapMode.READ_ONLY, end, CHECKSUM_SIZE).getInt()) {
+				throw new IOException(path + " is damaged, its checksum does not match");
+			}
+			Input in = new Input(channel, end);
+			if (in.need(HEADER_SIZE).getInt() != MAGIC) {
+				throw new IOException(path + " is not a snapshot");
+			}
+			int version = in.window.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + " has snapshot version " + version + ", expected " + VERSION);
+			}
+			int n = in.window.getInt();
+			if (n < 0 || (end - HEADER_SIZE) / 8 < n) {
+				throw new IOException(path + " has a bad number of keys " + n);
+			}
+			int[] keys = new int[n];
+			for (int i = 0; i < n; ) {
+				IntBuffer window = in.need(4).asIntBuffer();
+				int count = Math.min(window.remaining(), n - i);
+				window.get(keys, i, count);
+				in.skip(count * 4);
+				i += count;
+			}
+			String[] values = new String[n];
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < n; i++) {
+				int length = in.need(4).getInt();
+				if (length < 0) {
+					continue;
+				}
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.need(length).get(bytes, 0, length);
+				values[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			return AVLTree.fromSorted(keys, values);
+		}
+	}
+
+	/**
+	 * static int checksumOf(Path path)
+	 *
+	 * returns the checksum stored at the end of the snapshot in path, without reading the rest of it.
+	 */
+	static int checksumOf(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long end = channel.size() - CHECKSUM_SIZE;
+			if (end < HEADER_SIZE) {
+				throw new IOException(path + " is too short to be a snapshot");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, end, CHECKSUM_SIZE).getInt();
+		}
+	}
+
+	// returns the CRC32C of the first end bytes of the file
+	private static int checksum(FileChannel channel, long end) throws IOException {
+		CRC32C crc = new CRC32C();
+		for (long position = 0; position < end; position += WINDOW_SIZE) {
+			crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position)));
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * private static class Output
+	 *
+	 * buffers writes to the channel and keeps the CRC32C of everything written.
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final CRC32C crc = new CRC32C();
+
+		private Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void putInt(int i) throws IOException {
+			if (this.buffer.remaining() < 4) {
+				this.flush();
+			}
+			this.buffer.putInt(i);
+		}
+
+		private void put(byte[] bytes) throws IOException {
+			for (int offset = 0; offset < bytes.length; ) {
+				if (!this.buffer.hasRemaining()) {
+					this.flush();
+				}
+				int count = Math.min(this.buffer.remaining(), bytes.length - offset);
+				this.buffer.put(bytes, offset, count);
+				offset += count;
+			}
+		}
+
+		private void flush() throws IOException {
+			this.crc.update(this.buffer.array(), 0, this.buffer.position());
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		// writes the checksum after everything else
+		private void finish() throws IOException {
+			this.flush();
+			this.buffer.putInt((int) this.crc.getValue());
+			this.flush();
+		}
+	}
+
+	/**
+	 * private static class Input
+	 *
+	 * reads the first end bytes of the channel through a mapped window,
+	 * mapping the next window when the current one runs out.
+	 */
+	private static final class Input {
+		private final FileChannel channel;
+		private final long end;
+		private long start; // file position of the window
+		private MappedByteBuffer window;
+
+		private Input(FileChannel channel, long end) throws IOException {
+			this.channel = channel;
+			this.end = end;
+			this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, end));
+		}
+
+		// returns the window with at least n bytes remaining
+		private MappedByteBuffer need(int n) throws IOException {
+			if (this.window.remaining() < n) {
+				this.start += this.window.position();
+				long length = Math.min(WINDOW_SIZE, this.end - this.start);
+				if (length < n) {
+					throw new IOException("snapshot is truncated");
+				}
+				this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.start, length);
+			}
+			return this.window;
+		}
+
+		private void skip(int n) {
+			this.window.position(this.window.position() + n);
+		}
+	}
+}
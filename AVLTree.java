@@ -7,15 +7,56 @@
  *
  */
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
 312495328, Nofar Haim, nofarhaim
 206962912, Nizan Shami, nizans
 */
 
 public class AVLTree {
+	// shared virtual leaf, every missing child of every tree points to it
+	private static final IAVLNode VIRTUAL = new VirtualNode();
+	// constant, when false the JIT drops every metrics branch
+	private static final boolean METRICS = AVLTreeMetrics.ENABLED;
+	// batches of at most this many keys are applied to a subtree one by one
+	private static final int BATCH_LEAF = 4;
+	// set operations and builds of fewer items than this are not split between threads
+	private static final int PARALLEL_CUTOFF = 1 << 13;
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+
 	private IAVLNode root;
 	private IAVLNode min;
 	private IAVLNode max;
+	// kept in every node for its subtree, null if the tree has none
+	private final Augmentation augmentation;
+	// counts the operations that may take nodes out of the tree, fingers made before one start again from the root
+	private int removals;
+	// hot keys in front of search, null when off
+	private HotKeyCache cache;
+	// nodes taken out by delete, linked through their right son, reused by newNode
+	private AVLNode pool;
+	private int pooled;
+	private int poolCapacity;
 
 	//use in split
 	private AVLTree(IAVLNode root , AVLTree t) {
@@ -23,13 +64,244 @@ public class AVLTree {
 		this.root = root;
 		this.min = t.min;
 		this.max = t.max;
+		this.augmentation = t.augmentation;
 	}
 
 
 	public AVLTree() {
+		this(null);
+	}
+
+	/**
+	 * public AVLTree(Augmentation augmentation)
+	 *
+	 * Returns an empty tree whose nodes keep the augmentation of their subtree, for aggregate.
+	 * a null augmentation is the same as AVLTree().
+	 * a tree can be filled in O(n) with insertAll.
+	 */
+	public AVLTree(Augmentation augmentation) {
 		this.root = null;
 		this.min = null;
 		this.max = null;
+		this.augmentation = augmentation;
+	}
+
+	/**
+	 * public static AVLTree fromSorted(int[] keys, String[] values)
+	 *
+	 * Returns a balanced tree of the items (keys[i], values[i]), in O(n).
+	 * precondition: keys are strictly increasing, keys.length == values.length
+	 */
+	public static AVLTree fromSorted(int[] keys, String[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("keys and values lengths differ");
+		}
+		return fromSorted(keys, values, keys.length);
+	}
+
+	// builds a tree of the first n items, checks the keys are increasing
+	private static AVLTree fromSorted(int[] keys, String[] values, int n) {
+		for (int i = 1; i < n; i++) {
+			if (keys[i - 1] >= keys[i]) {
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+			}
+		}
+		AVLTree tree = new AVLTree();
+		if (n == 0) {
+			return tree;
+		}
+		tree.setBuilt(tree.buildBalanced(keys, values, 0, n));
+		return tree;
+	}
+
+	// makes root, built by buildBalanced, the root of the tree and sets min,max to its edges
+	private void setBuilt(IAVLNode root) {
+		this.root = root;
+		this.root.setParent(null);
+		this.min = this.root;
+		while (this.min.getLeft().isRealNode()) {
+			this.min = this.min.getLeft();
+		}
+		this.max = this.root;
+		while (this.max.getRight().isRealNode()) {
+			this.max = this.max.getRight();
+		}
+	}
+
+	/**
+	 * public static AVLTree build(int[] keys, String[] values)
+	 *
+	 * Returns a balanced tree of the items (keys[i], values[i]) given in any order.
+	 * a key given more than once is kept once, with the info given last for it
+	 * (insert keeps the first item of a key instead, build replaces it).
+	 * the items are sorted by Arrays.parallelSort, and the tree is built bottom up with each
+	 * subtree of more than PARALLEL_CUTOFF items split between the threads of the common fork-join pool.
+	 * O(n log n) work for the sort, O(n) for the tree.
+	 * precondition: keys.length == values.length
+	 */
+	public static AVLTree build(int[] keys, String[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("keys and values lengths differ");
+		}
+		// key in the high half, index in the low half, so equal keys sort by the order they were given
+		long[] items = new long[keys.length];
+		Arrays.parallelSetAll(items, i -> ((long) keys[i] << 32) | i);
+		Arrays.parallelSort(items);
+		int n = 0;
+		for (int i = 0; i < items.length; i++) {
+			if (i + 1 < items.length && (int) (items[i + 1] >> 32) == (int) (items[i] >> 32)) {
+				continue; // the last of equal keys is kept
+			}
+			items[n++] = items[i];
+		}
+		int[] sortedKeys = new int[n];
+		String[] sortedValues = new String[n];
+		Arrays.parallelSetAll(sortedKeys, i -> (int) (items[i] >> 32));
+		Arrays.parallelSetAll(sortedValues, i -> values[(int) items[i]]);
+		AVLTree tree = new AVLTree();
+		if (n > 0) {
+			tree.setBuilt(ForkJoinPool.commonPool().invoke(new Build(tree, sortedKeys, sortedValues, 0, n)));
+		}
+		return tree;
+	}
+
+	/**
+	 * private static class Build
+	 *
+	 * builds the balanced subtree of the sorted items in [from, to) like buildBalanced,
+	 * the two sides of the middle item as parallel fork-join tasks above PARALLEL_CUTOFF items
+	 */
+	private static class Build extends RecursiveTask<IAVLNode> {
+		private static final long serialVersionUID = 1L;
+		private final AVLTree tree;
+		private final int[] keys;
+		private final String[] values;
+		private final int from;
+		private final int to;
+
+		private Build(AVLTree tree, int[] keys, String[] values, int from, int to) {
+			this.tree = tree;
+			this.keys = keys;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected IAVLNode compute() {
+			if (this.to - this.from <= PARALLEL_CUTOFF) {
+				return this.tree.buildBalanced(this.keys, this.values, this.from, this.to);
+			}
+			int mid = (this.from + this.to) >>> 1;
+			IAVLNode node = this.tree.newNode(this.keys[mid], this.values[mid]);
+			Build left = new Build(this.tree, this.keys, this.values, this.from, mid);
+			left.fork();
+			IAVLNode right = new Build(this.tree, this.keys, this.values, mid + 1, this.to).compute();
+			return this.tree.linkSons(node, left.join(), right);
+		}
+	}
+
+	/**
+	 * private IAVLNode buildBalanced(int[] keys, String[] values, int from, int to)
+	 *
+	 * builds a balanced subtree of the items in [from, to), the middle item is the root.
+	 * the sons' heights differ by at most 1, so rank = height and size are set bottom up.
+	 * returns the root, or the virtual leaf if the range is empty
+	 */
+	private IAVLNode buildBalanced(int[] keys, String[] values, int from, int to) {
+		if (from >= to) {
+			return VIRTUAL;
+		}
+		int mid = (from + to) >>> 1;
+		IAVLNode node = this.newNode(keys[mid], values[mid]);
+		IAVLNode left = this.buildBalanced(keys, values, from, mid);
+		IAVLNode right = this.buildBalanced(keys, values, mid + 1, to);
+		return this.linkSons(node, left, right);
+	}
+
+	// puts the balanced subtrees left and right under node, whose key is between theirs, and returns node
+	private IAVLNode linkSons(IAVLNode node, IAVLNode left, IAVLNode right) {
+		node.setLeft(left);
+		node.setRight(right);
+		left.setParent(node);
+		right.setParent(node);
+		node.setHeight(Math.max(left.getHeight(), right.getHeight()) + 1);
+		node.setRank(node.getHeight());
+		this.fixSize(node);
+		return node;
+	}
+
+	/**
+	 * public static Builder builder()
+	 *
+	 * Returns a builder that receives items in increasing key order
+	 * when their number is not known up front.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * public static class Builder
+	 *
+	 * Collects items in increasing key order, and builds a balanced tree from them in O(n).
+	 */
+	public static class Builder {
+		private int[] keys = new int[16];
+		private String[] values = new String[16];
+		private int size;
+
+		private Builder() {
+		}
+
+		/**
+		 * public Builder add(int k, String i)
+		 *
+		 * adds the item (k, i), returns this builder.
+		 * precondition: k is bigger than every key added before
+		 */
+		public Builder add(int k, String i) {
+			if (this.size > 0 && this.keys[this.size - 1] >= k) {
+				throw new IllegalArgumentException("key " + k + " is not bigger than the previous key");
+			}
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.keys[this.size] = k;
+			this.values[this.size] = i;
+			this.size++;
+			return this;
+		}
+
+		/**
+		 * public AVLTree build()
+		 *
+		 * Returns a balanced tree of the items added so far.
+		 */
+		public AVLTree build() {
+			return AVLTree.fromSorted(this.keys, this.values, this.size);
+		}
+	}
+
+	/**
+	 * public void writeSnapshot(Path path)
+	 *
+	 * writes the keys and info of the tree to path, in the versioned and checksummed format of AVLSnapshot.
+	 * the file is replaced at once, a crash leaves either the old snapshot or the new one. O(n).
+	 */
+	public void writeSnapshot(Path path) throws IOException {
+		AVLSnapshot.write(this, path);
+	}
+
+	/**
+	 * public static AVLTree load(Path path)
+	 *
+	 * Returns the tree written to path by writeSnapshot.
+	 * the file is memory mapped and the tree is built from its sorted keys in O(n), without rotations.
+	 * throws IOException if path is not a snapshot of this version, or its checksum does not match.
+	 */
+	public static AVLTree load(Path path) throws IOException {
+		return AVLSnapshot.read(path);
 	}
 
 	/**
@@ -44,24 +316,74 @@ public class AVLTree {
 	}
 
 	/**
-	 * private IAVLNode searchRec(IAVLNode root, int k)
+	 * private IAVLNode searchNode(IAVLNode root, int k)
 	 * receive root of AVLTree and key k,
-	 * search recursively if key k exists in the tree,
-	 * if so, returns the node of with key k, 
+	 * walks down from root to key k,
+	 * if it exists returns the node of with key k,
 	 * otherwise, returns virtualNode
 	 */
-	private IAVLNode searchRec(IAVLNode root, int k) {
-		if (root.getKey() == k || !root.isRealNode()) {
-			return root;
+	private static IAVLNode searchNode(IAVLNode root, int k) {
+		IAVLNode node = root;
+		while (node.isRealNode()) {
+			int key = node.getKey();
+			if (key == k) {
+				return node;
+			}
+			node = (key > k) ? node.getLeft() : node.getRight();
 		}
-		if (root.getKey() > k) {
-			return searchRec(root.getLeft(), k);
+		return node;
+	}
+
+	/**
+	 * private IAVLNode searchPosition(IAVLNode root, int k)
+	 * receive root of AVLTree and key k,
+	 * walks down from root to key k,
+	 * if it exists returns the node of with key k,
+	 * otherwise, returns the real node that should be the parent of key k
+	 */
+	private static IAVLNode searchPosition(IAVLNode root, int k) {
+		IAVLNode node = root;
+		while (true) {
+			int key = node.getKey();
+			if (key == k) {
+				return node;
+			}
+			IAVLNode next = (key > k) ? node.getLeft() : node.getRight();
+			if (!next.isRealNode()) {
+				return node;
+			}
+			node = next;
 		}
-		if (root.getKey() < k) {
-			return searchRec(root.getRight(), k);
+	}
+
+	/**
+	 * private IAVLNode searchFrom(IAVLNode node, int k)
+	 * receive a node of the tree and key k,
+	 * climbs from node to the lowest ancestor whose subtree may hold key k, then walks down like searchPosition.
+	 * when d keys lie between node and k this usually takes O(log d),
+	 * and O(log n) at worst, when a high node (e.g. the root) separates them.
+	 */
+	private IAVLNode searchFrom(IAVLNode node, int k) {
+		if (k > node.getKey()) {
+			// a left son's subtree holds the keys below its parent's key
+			while (node != this.root) {
+				IAVLNode parent = node.getParent();
+				if (parent.getLeft() == node && parent.getKey() > k) {
+					break;
+				}
+				node = parent;
+			}
+		} else if (k < node.getKey()) {
+			while (node != this.root) {
+				IAVLNode parent = node.getParent();
+				if (parent.getRight() == node && parent.getKey() < k) {
+					break;
+				}
+				node = parent;
+			}
 		}
-		return null; // never gets here
-	}	
+		return searchPosition(node, k);
+	}
 
 	/**
 	 * public String search(int k)
@@ -71,15 +393,74 @@ public class AVLTree {
 	 */
 	public String search(int k)
 	{
+		if (!METRICS) {
+			return this.find(k);
+		}
+		long start = System.nanoTime();
+		String value = this.find(k);
+		AVLTreeMetrics.SEARCH.record(System.nanoTime() - start);
+		return value;
+	}
+
+	// returns the info of key k, or null
+	private String find(int k)
+	{
+		HotKeyCache cache = this.cache;
+		if (cache != null) {
+			String value = cache.get(k);
+			if (value != null) {
+				return value;
+			}
+		}
 		if(this.getRoot() == null) {
 			return null;
 		}
-		IAVLNode node = searchRec(this.getRoot(), k);
+		IAVLNode node = searchNode(this.getRoot(), k);
 		if(node.isRealNode()) {
+			if (cache != null && node.getValue() != null) {
+				cache.missed(k, node.getValue());
+			}
 			return node.getValue();
 		}
 		return null;
 	}
+
+	/**
+	 * public void setCacheCapacity(int capacity)
+	 *
+	 * keeps up to capacity searched keys and their info in a hash table in front of search,
+	 * so searches of hot keys do not walk the tree. when it is full, the keys not searched
+	 * for the longest are replaced (CLOCK). 0 turns the cache off, as it is by default.
+	 * delete, deleteAll, the set operations, split and join drop exactly the keys they take out of the tree,
+	 * so search never returns info the tree does not have.
+	 * with the cache on, search writes too (the CLOCK bits, the doorkeeper and the table),
+	 * so concurrent searches are not safe even under a shared / read lock; they need the lock writers take.
+	 */
+	public void setCacheCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("cache capacity must not be negative: " + capacity);
+		}
+		this.cache = (capacity == 0) ? null : new HotKeyCache(capacity);
+	}
+
+	/**
+	 * public long cacheHits()
+	 *
+	 * Returns the number of searches answered by the cache since it was turned on, 0 if it is off.
+	 * with cacheMisses, tells whether the cache capacity covers the hot keys.
+	 */
+	public long cacheHits() {
+		return (this.cache == null) ? 0 : this.cache.hits;
+	}
+
+	/**
+	 * public long cacheMisses()
+	 *
+	 * Returns the number of searches that went to the tree since the cache was turned on, 0 if it is off.
+	 */
+	public long cacheMisses() {
+		return (this.cache == null) ? 0 : this.cache.misses;
+	}
 	/**
 	 * private void rotateRight(IAVLNode root)
 	 * receive current node
@@ -87,6 +468,9 @@ public class AVLTree {
 	 * return nothing
 	 */
 	private void rotateRight(IAVLNode root) {
+		if (METRICS) {
+			AVLTreeMetrics.RIGHT_ROTATIONS.increment();
+		}
 		IAVLNode tmpRoot = root;
 		IAVLNode tmpLeft = root.getLeft();
 		tmpLeft.setParent(tmpRoot.getParent());
@@ -104,7 +488,8 @@ public class AVLTree {
 		tmpLeft.setRight(tmpRoot);
 		tmpRoot.setParent(tmpLeft);
 		demote(root);
-		root.setSize(root.getLeft().getSize() + root.getRight().getSize() + 1);
+		fixSize(root);
+		fixSize(tmpLeft);
 	}
 
 	/**
@@ -114,6 +499,9 @@ public class AVLTree {
 	 * return nothing
 	 */
 	private void rotateLeft(IAVLNode root) {
+		if (METRICS) {
+			AVLTreeMetrics.LEFT_ROTATIONS.increment();
+		}
 		IAVLNode right = root.getRight(); // input's right son
 		IAVLNode tmpParent = root.getParent(); // input's parent
 		root.setRight(right.getLeft());
@@ -133,11 +521,16 @@ public class AVLTree {
 			}
 		}
 		demote(root);
-		root.setSize(root.getLeft().getSize() + root.getRight().getSize() + 1);
+		fixSize(root);
+		fixSize(right);
 	}
 
-	private void virtualToReal(IAVLNode virtual, IAVLNode real) {
-		IAVLNode parent = virtual.getParent();
+	/**
+	 * private void virtualToReal(IAVLNode parent, IAVLNode real)
+	 * receive a real node and new node,
+	 * replace the virtual son of parent on real's side with real
+	 */
+	private void virtualToReal(IAVLNode parent, IAVLNode real) {
 		if (parent.getKey() < real.getKey()) {
 			parent.setRight(real);
 		}
@@ -148,147 +541,258 @@ public class AVLTree {
 	}
 
 	private void promote(IAVLNode node) {
+		if (METRICS) {
+			AVLTreeMetrics.PROMOTIONS.increment();
+		}
 		node.setRank(node.getRank() + 1);
 		node.setHeight(node.getHeight() + 1);
 	}
 
 	private void demote(IAVLNode node) {
+		if (METRICS) {
+			AVLTreeMetrics.DEMOTIONS.increment();
+		}
 		node.setRank(node.getRank() - 1);
 		node.setHeight(node.getHeight() - 1);
 	}
 
+	/**
+	 * private int rebalance(IAVLNode parent, int cnt)
+	 *
+	 * receive the lowest node whose subtree changed,
+	 * walks up once fixing ranks and subtree sizes together, and rotating where needed.
+	 * above the last rebalancing operation only sizes change, the same walk goes on to the root.
+	 * returns cnt plus the number of rebalancing operations done.
+	 */
 	private int rebalance(IAVLNode parent, int cnt) {
-		if (parent == null) {
-			return cnt;
-		}
-		int rightRankDiffer = parent.getRank() - parent.getRight().getRank();
-		int leftRankDiffer = parent.getRank() - parent.getLeft().getRank();
-
-		// insert case: 0-1 or 1-0
-		if ((rightRankDiffer == 0 && leftRankDiffer == 1) || 
-				((rightRankDiffer == 1 && leftRankDiffer == 0))) {
-			promote(parent);
-			cnt++;
-			if (!parent.equals(this.getRoot())) {
-				return rebalance(parent.getParent(), cnt);
-			}
-		}
-
-		// insert case: 2-0 or 0-2
-		if (rightRankDiffer == 2 && leftRankDiffer == 0) {
-			int isDouble = parent.getLeft().getRank() - parent.getLeft().getLeft().getRank();
-			if (isDouble == 2) {
-				promote(parent.getLeft().getRight()); // promote b as signed in lecture
-				this.rotateLeft(parent.getLeft());
-				this.rotateRight(parent);
-				cnt += 5;
-			} else { 
-				this.rotateRight(parent);
-				cnt += 2;
-			}
-			return cnt;
-		}
-		if (rightRankDiffer == 0 && leftRankDiffer == 2) {
-			int isDouble = parent.getRight().getRank() - parent.getRight().getRight().getRank();
-			if (isDouble == 2) {
-				promote(parent.getRight().getLeft()); // Symmetrically to b
-				this.rotateRight(parent.getRight());
-				this.rotateLeft(parent);
-				cnt += 5;
-			} else {
-				this.rotateLeft(parent);
-				cnt += 2;
-			}
-			return cnt;
-		}
+		IAVLNode last = null;
+		while (parent != null) {
+			fixSize(parent);
+			last = parent;
+			IAVLNode next = null;
+			int rightRankDiffer = parent.getRank() - parent.getRight().getRank();
+			int leftRankDiffer = parent.getRank() - parent.getLeft().getRank();
 
-		// delete case: 2-2
-		if (rightRankDiffer == 2 && leftRankDiffer == 2) {
-			demote(parent);
-			cnt++;
-			if (!parent.equals(this.getRoot())) {
-				return rebalance(parent.getParent(), cnt);
-			}
-		}
-
-		// delete case: 1-3 or 3-1
-		if (rightRankDiffer == 1 && leftRankDiffer == 3) {
-			int isDouble = parent.getLeft().getRank() - parent.getLeft().getLeft().getRank();
-			if (isDouble == 2) {
-				demote(parent);
-				promote(parent.getLeft().getRight());
-				this.rotateLeft(parent.getLeft());
-				this.rotateRight(parent);
-				cnt += 6;
-				if (!parent.getParent().equals(this.getRoot())) {
-					return rebalance(parent.getParent().getParent(), cnt);
+			if ((rightRankDiffer == 0 && leftRankDiffer == 1) ||
+					((rightRankDiffer == 1 && leftRankDiffer == 0))) { // insert case: 0-1 or 1-0
+				promote(parent);
+				cnt++;
+				if (parent != this.root) {
+					next = parent.getParent();
 				}
-			} else {
-				int isCase3 = parent.getLeft().getRank() - parent.getLeft().getRight().getRank(); // case 3 according to lecture
-				if (isCase3 == 2) {
-					demote(parent);
+			} else if (rightRankDiffer == 2 && leftRankDiffer == 0) { // insert case: 2-0 or 0-2
+				int isDouble = parent.getLeft().getRank() - parent.getLeft().getLeft().getRank();
+				int isJoin = parent.getLeft().getRank() - parent.getLeft().getRight().getRank();
+				if (isDouble == 2) {
+					if (METRICS) {
+						AVLTreeMetrics.DOUBLE_ROTATIONS.increment();
+					}
+					promote(parent.getLeft().getRight()); // promote b as signed in lecture
+					this.rotateLeft(parent.getLeft());
+					this.rotateRight(parent);
+					cnt += 5;
+				} else if (isJoin == 1) { // 1-1 son, happens only in join
+					IAVLNode left = parent.getLeft();
 					this.rotateRight(parent);
+					promote(parent);
+					promote(left);
 					cnt += 3;
-					if (!parent.getParent().equals(this.getRoot())) {
-						return rebalance(parent.getParent().getParent(), cnt);
-					}
-				}
-				else { // case 2 according to lecture
-					promote(parent.getLeft());
+					next = left.getParent();
+				} else {
 					this.rotateRight(parent);
+					cnt += 2;
+				}
+			} else if (rightRankDiffer == 0 && leftRankDiffer == 2) {
+				int isDouble = parent.getRight().getRank() - parent.getRight().getRight().getRank();
+				int isJoin = parent.getRight().getRank() - parent.getRight().getLeft().getRank();
+				if (isDouble == 2) {
+					if (METRICS) {
+						AVLTreeMetrics.DOUBLE_ROTATIONS.increment();
+					}
+					promote(parent.getRight().getLeft()); // Symmetrically to b
+					this.rotateRight(parent.getRight());
+					this.rotateLeft(parent);
+					cnt += 5;
+				} else if (isJoin == 1) { // 1-1 son, happens only in join
+					IAVLNode right = parent.getRight();
+					this.rotateLeft(parent);
+					promote(parent);
+					promote(right);
 					cnt += 3;
+					next = right.getParent();
+				} else {
+					this.rotateLeft(parent);
+					cnt += 2;
 				}
-			}
-		}
-		if (rightRankDiffer == 3 && leftRankDiffer == 1) {
-			int isDouble = parent.getRight().getRank() - parent.getRight().getRight().getRank();
-			if (isDouble == 2) {
-				promote(parent.getRight().getLeft());
+			} else if (rightRankDiffer == 2 && leftRankDiffer == 2) { // delete case: 2-2
 				demote(parent);
-				this.rotateRight(parent.getRight());
-				this.rotateLeft(parent);
-				cnt += 6;
-				if (!parent.getParent().equals(this.getRoot())) {
-					return rebalance(parent.getParent().getParent(), cnt);
+				cnt++;
+				if (parent != this.root) {
+					next = parent.getParent();
 				}
-			} else {
-				int isCase3 = parent.getRight().getRank() - parent.getRight().getLeft().getRank(); // case 3 according to lecture
-				if (isCase3 == 2) {
+			} else if (rightRankDiffer == 3 && leftRankDiffer == 1) { // delete case: 1-3 or 3-1 (right son is short)
+				int isDouble = parent.getLeft().getRank() - parent.getLeft().getLeft().getRank();
+				if (isDouble == 2) {
+					if (METRICS) {
+						AVLTreeMetrics.DOUBLE_ROTATIONS.increment();
+					}
 					demote(parent);
-					this.rotateLeft(parent);
-					cnt += 3;
-					if (!parent.getParent().equals(this.getRoot())) {
-						return rebalance(parent.getParent().getParent(), cnt);
+					promote(parent.getLeft().getRight());
+					this.rotateLeft(parent.getLeft());
+					this.rotateRight(parent);
+					cnt += 6;
+					if (parent.getParent() != this.root) {
+						next = parent.getParent().getParent();
+					}
+				} else {
+					int isCase3 = parent.getLeft().getRank() - parent.getLeft().getRight().getRank(); // case 3 according to lecture
+					if (isCase3 == 2) {
+						demote(parent);
+						this.rotateRight(parent);
+						cnt += 3;
+						if (parent.getParent() != this.root) {
+							next = parent.getParent().getParent();
+						}
+					}
+					else { // case 2 according to lecture
+						promote(parent.getLeft());
+						this.rotateRight(parent);
+						cnt += 3;
 					}
 				}
-				else {
-					promote(parent.getRight());
+			} else if (rightRankDiffer == 1 && leftRankDiffer == 3) { // left son is short
+				int isDouble = parent.getRight().getRank() - parent.getRight().getRight().getRank();
+				if (isDouble == 2) {
+					if (METRICS) {
+						AVLTreeMetrics.DOUBLE_ROTATIONS.increment();
+					}
+					promote(parent.getRight().getLeft());
+					demote(parent);
+					this.rotateRight(parent.getRight());
 					this.rotateLeft(parent);
-					cnt += 3;
+					cnt += 6;
+					if (parent.getParent() != this.root) {
+						next = parent.getParent().getParent();
+					}
+				} else {
+					int isCase3 = parent.getRight().getRank() - parent.getRight().getLeft().getRank(); // case 3 according to lecture
+					if (isCase3 == 2) {
+						demote(parent);
+						this.rotateLeft(parent);
+						cnt += 3;
+						if (parent.getParent() != this.root) {
+							next = parent.getParent().getParent();
+						}
+					}
+					else {
+						promote(parent.getRight());
+						this.rotateLeft(parent);
+						cnt += 3;
+					}
 				}
 			}
-			return cnt;
+			parent = next;
+		}
+		// the rank walk stopped, the sizes above it still count the old subtree
+		if (last != null && last != this.root) {
+			this.updateSize(last.getParent());
 		}
 		return cnt;
 	}
 
+	// sets the size and the augmentation of node from those of its sons
+	private void fixSize(IAVLNode node) {
+		node.setSize(node.getLeft().getSize() + node.getRight().getSize() + 1);
+		if (this.augmentation != null) {
+			((AugmentedNode) node).aggregate = this.combined(node);
+		}
+	}
+
+	// returns the augmentation of the subtree of node, computed from its sons
+	private long combined(IAVLNode node) {
+		Augmentation a = this.augmentation;
+		long self = a.measure(node.getKey(), node.getValue());
+		return a.combine(a.combine(this.aggregateOf(node.getLeft()), self), this.aggregateOf(node.getRight()));
+	}
+
+	// returns the augmentation kept in node, the identity for the virtual leaf
+	private long aggregateOf(IAVLNode node) {
+		return node.isRealNode() ? ((AugmentedNode) node).aggregate : this.augmentation.identity();
+	}
+
+	// returns a new node for the tree, with room for the augmentation if the tree has one
+	private AVLNode newNode(int k, String i) {
+		AVLNode node = this.pool;
+		if (node == null) {
+			return (this.augmentation == null) ? new AVLNode(k, i) : new AugmentedNode(k, i);
+		}
+		this.pool = (AVLNode) node.right;
+		this.pooled--;
+		node.key = k;
+		node.value = i;
+		node.right = VIRTUAL;
+		node.rank = 0;
+		node.height = 0;
+		node.size = 1;
+		return node;
+	}
+
+	// keeps node, which is out of the tree, for newNode if the pool has room
+	private void recycle(IAVLNode node) {
+		if (this.pooled < this.poolCapacity && node instanceof AVLNode) {
+			AVLNode free = (AVLNode) node;
+			free.value = null;
+			free.left = VIRTUAL;
+			free.parent = null;
+			free.right = this.pool;
+			this.pool = free;
+			this.pooled++;
+		}
+	}
+
+	/**
+	 * public void setNodePoolCapacity(int capacity)
+	 *
+	 * keeps up to capacity nodes taken out of the tree by delete, and gives them to the next inserts
+	 * instead of allocating new ones, so a tree that deletes and inserts at the same rate allocates nothing.
+	 * 0 turns the pool off, as it is by default. nodes above the new capacity are dropped.
+	 * a node got from getRoot() and then deleted may come back in the tree with another key.
+	 */
+	public void setNodePoolCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("node pool capacity must not be negative: " + capacity);
+		}
+		this.poolCapacity = capacity;
+		while (this.pooled > capacity) {
+			this.pool = (AVLNode) this.pool.right;
+			this.pooled--;
+		}
+	}
+
+	/**
+	 * public void trim()
+	 *
+	 * drops the nodes kept by the node pool, for the garbage collector. the pool keeps its capacity.
+	 */
+	public void trim() {
+		this.pool = null;
+		this.pooled = 0;
+	}
+
 	/**
 	 * private void updateSize(IAVLNode node)
 	 *
-	 * receive AVLTree
-	 * update tree's size recursively and return nothing
+	 * receive a node whose sons have the right sizes,
+	 * fixes the sizes from node up to the root and return nothing
 	 */
 	private void updateSize(IAVLNode node) {
-		if (node == null) {
-			return;
-		}
-		if (node.equals(this.getRoot())) {
-			node.setSize(node.getLeft().getSize() + node.getRight().getSize() + 1);
-			return;
+		while (node != null) {
+			fixSize(node);
+			if (node == this.root) {
+				return;
+			}
+			node = node.getParent();
 		}
-		IAVLNode parent = node.getParent();
-		node.setSize(node.getLeft().getSize() + node.getRight().getSize() + 1);
-		updateSize(parent);
 	}
 
 	/**
@@ -301,8 +805,76 @@ public class AVLTree {
 	 * returns -1 if an item with key k already exists in the tree.
 	 */
 	public int insert(int k, String i) {
+		if (!METRICS) {
+			return this.append(this.newNode(k, i));
+		}
+		long start = System.nanoTime();
+		return inserted(start, this.append(this.newNode(k, i)));
+	}
+
+	// records the metrics of an insert that started at start (System.nanoTime) and returned cnt
+	private static int inserted(long start, int cnt) {
+		AVLTreeMetrics.INSERT.record(System.nanoTime() - start);
+		if (cnt > 0) {
+			AVLTreeMetrics.REBALANCES.add(cnt);
+		}
+		return cnt;
+	}
+
+	/**
+	 * private int append(IAVLNode newNode)
+	 *
+	 * inserts newNode like insertNode, but a key bigger than max (smaller than min)
+	 * is attached straight under max (min), which has no son on that side, without searching from the root.
+	 * precondition: min and max are right, as they are between public operations
+	 */
+	private int append(IAVLNode newNode) {
+		if (!this.empty()) {
+			int k = newNode.getKey();
+			if (k > this.max.getKey()) {
+				return this.insertAt(this.max, newNode);
+			}
+			if (k < this.min.getKey()) {
+				return this.insertAt(this.min, newNode);
+			}
+		}
+		return this.insertNode(newNode);
+	}
+
+	/**
+	 * private int insertAt(IAVLNode parent, IAVLNode newNode)
+	 *
+	 * receive the node searchPosition returns for the key of newNode,
+	 * attaches newNode under it and rebalances up from there.
+	 * returns the same as insert.
+	 * precondition: the tree is not empty, min and max are right
+	 */
+	private int insertAt(IAVLNode parent, IAVLNode newNode) {
+		int k = newNode.getKey();
+		if (parent.getKey() == k) {
+			this.recycle(newNode);
+			return -1;
+		}
+		this.fixSize(newNode);
+		if (k < this.min.getKey()) {
+			this.min = newNode;
+		} else if (k > this.max.getKey()) {
+			this.max = newNode;
+		}
+		virtualToReal(parent, newNode); // switch virtual son of parent to new node
+		return rebalance(parent, 0);
+	}
+
+	/**
+	 * private int insertNode(IAVLNode newNode)
+	 *
+	 * inserts newNode, a single node with no sons, to the AVL tree.
+	 * returns the same as insert.
+	 */
+	private int insertNode(IAVLNode newNode) {
 		int cnt = 0;
-		IAVLNode newNode = new AVLNode(k, i);
+		int k = newNode.getKey();
+		this.fixSize(newNode);
 		if (this.empty()) {
 			this.root = newNode;
 			// when the tree is empty node == min,max
@@ -310,19 +882,19 @@ public class AVLTree {
 			this.min = newNode;
 			return cnt;
 		}
-		if(k < this.min.getKey()) {//update min
+		if(this.min == null || k < this.min.getKey()) {//update min (unknown while splitting)
 			this.min = newNode;
 		}
-		if(k > this.max.getKey()) {//update max
+		if(this.max == null || k > this.max.getKey()) {//update max
 			this.max = newNode;
 		}
-		IAVLNode searchK = searchRec(this.getRoot(), k);
-		if (searchK.isRealNode()) {
+		IAVLNode parent = searchPosition(this.getRoot(), k);
+		if (parent.getKey() == k) {
+			this.recycle(newNode);
 			return -1;
 		}
-		virtualToReal(searchK, newNode); // switch virtual node to new node
+		virtualToReal(parent, newNode); // switch virtual son of parent to new node
 		cnt = rebalance(newNode.getParent(), cnt);
-		this.updateSize(newNode);
 		return cnt;
 	}
 	/**
@@ -345,7 +917,7 @@ public class AVLTree {
 		else {
 			IAVLNode parent = node.getParent();
 			IAVLNode parentChild = node;
-			while (parent != null  && parentChild.equals(parent.getRight())) {
+			while (parent != null  && parentChild.equals(parent.getLeft())) {
 				parentChild = parent;
 				parent = parent.getParent();
 			}
@@ -415,8 +987,6 @@ public class AVLTree {
 		// sets x's sons parent to y
 		x.getRight().setParent(y);
 		x.getLeft().setParent(y);
-		this.updateSize(y);
-
 	}
 
 	/**
@@ -429,19 +999,43 @@ public class AVLTree {
 	 * returns -1 if an item with key k was not found in the tree.
 	 */
 	public int delete(int k)
+	{
+		if (!METRICS) {
+			return this.deleteKey(k);
+		}
+		long start = System.nanoTime();
+		int cnt = this.deleteKey(k);
+		AVLTreeMetrics.DELETE.record(System.nanoTime() - start);
+		if (cnt > 0) {
+			AVLTreeMetrics.REBALANCES.add(cnt);
+		}
+		return cnt;
+	}
+
+	/**
+	 * private int deleteKey(int k)
+	 *
+	 * deletes an item with key k, returns the same as delete.
+	 */
+	private int deleteKey(int k)
 	{
 		if (this.empty()) {
 			return -1;
 		}
 		int cnt = 0;
-		IAVLNode node = searchRec(this.getRoot(), k);
+		IAVLNode node = searchNode(this.getRoot(), k);
 		if (!node.isRealNode()) {
 			return -1;
 		}
+		this.removals++;
+		if (this.cache != null) {
+			this.cache.remove(k);
+		}
 		if (this.size() == 1) {
 			this.root = null;
 			this.min = null;
 			this.max = null;
+			this.recycle(node);
 			return cnt;
 		}
 		else if(node == this.min) {//update min 
@@ -455,83 +1049,400 @@ public class AVLTree {
 		boolean isRight = node.getRight().isRealNode();
 		boolean isLeft = node.getLeft().isRealNode();
 
-		// delete a leaf
-		if (!isRight && !isLeft) {
-			if (k < parent.getKey()) {
-				parent.setLeft(node.getLeft());
-				node.getLeft().setParent(parent);
-			}
-			else {
-				parent.setRight(node.getRight());
-				node.getRight().setParent(parent);
+		// delete a leaf or an unary node, its only son (or virtual son) takes its place
+		if (!isRight || !isLeft) {
+			IAVLNode son = isLeft ? node.getLeft() : node.getRight();
+			if (parent == null) {
+				this.root = son;
+			} else if (parent.getLeft() == node) {
+				parent.setLeft(son);
+			} else {
+				parent.setRight(son);
 			}
+			son.setParent(parent);
 			cnt = this.rebalance(parent, cnt);
-			this.updateSize(node.getParent());
-
+			this.recycle(node);
 			return cnt;
 		}
 
-		// delete an unary node
-		if (!isRight && isLeft) {
-			if (this.getRoot().getKey() == k) {
-				this.root = node.getLeft();
-				node.getLeft().setParent(parent);
-			} else {
-				if (k < parent.getKey()) {
-					parent.setLeft(node.getLeft());
-					node.getLeft().setParent(parent);
-					this.updateSize(node.getLeft());
-				}
-				else {
-					parent.setRight(node.getLeft());
-					node.getLeft().setParent(parent);
-				}
-			}
-		} else if (isRight && !isLeft) {
-			if (this.getRoot().getKey() == k) {
-				this.root = node.getRight();
-				node.getRight().setParent(parent);
-			} else {
-				if (k < parent.getKey()) {
-					parent.setLeft(node.getRight());
-					node.getRight().setParent(parent);
+		// delete node with 2 sons
+		IAVLNode successor = this.successor(node);
+		IAVLNode sucParent = successor.getParent();
+		// remove successor from tree
+		if (sucParent.getRight() == successor) {
+			sucParent.setRight(successor.getRight());
+		} else {
+			sucParent.setLeft(successor.getRight());
+		}
+		successor.getRight().setParent(sucParent);
+		// replace node with successor
+		switchNodes(node, successor);
+		// checking whether deleted node is successor's parent
+		IAVLNode start = (sucParent == node) ? successor : sucParent;
+		cnt = this.rebalance(start, cnt);
+		this.recycle(node);
+		return cnt;
+	}
+
+
+	/**
+	 * public int insertAll(int[] sortedKeys, String[] values, boolean[] inserted)
+	 *
+	 * inserts the items (sortedKeys[i], values[i]) to the AVL tree as one batch.
+	 * the tree is split at its root, each half receives the keys on its side recursively,
+	 * and the halves are joined back, so m keys cost O(m log(n/m + 1)) instead of m searches from the root.
+	 * if inserted != null, inserted[i] is set to false if sortedKeys[i] was already in the tree.
+	 * returns the total number of rebalancing operations of the joins.
+	 * precondition: sortedKeys is strictly increasing, values (and inserted) are as long as sortedKeys
+	 */
+	public int insertAll(int[] sortedKeys, String[] values, boolean[] inserted) {
+		checkBatch(sortedKeys, values.length, inserted);
+		int[] rebalanced = {0};
+		AVLTree result = this.unionSorted(this.subtree(this.getRoot()), sortedKeys, values, 0, sortedKeys.length, inserted, rebalanced);
+		this.adopt(result);
+		return rebalanced[0];
+	}
+
+	/**
+	 * public int deleteAll(int[] sortedKeys, boolean[] deleted)
+	 *
+	 * deletes the items with keys sortedKeys from the AVL tree as one batch, the same way as insertAll.
+	 * if deleted != null, deleted[i] is set to true if sortedKeys[i] was in the tree.
+	 * returns the total number of rebalancing operations of the joins and deletes.
+	 * precondition: sortedKeys is strictly increasing, deleted is as long as sortedKeys
+	 */
+	public int deleteAll(int[] sortedKeys, boolean[] deleted) {
+		checkBatch(sortedKeys, sortedKeys.length, deleted);
+		int[] rebalanced = {0};
+		AVLTree result = this.differenceSorted(this.subtree(this.getRoot()), sortedKeys, 0, sortedKeys.length, deleted, rebalanced);
+		this.adopt(result);
+		if (this.cache != null) {
+			for (int k : sortedKeys) {
+				this.cache.remove(k);
+			}
+		}
+		return rebalanced[0];
+	}
+
+	// checks the preconditions of insertAll / deleteAll
+	private static void checkBatch(int[] sortedKeys, int valuesLength, boolean[] flags) {
+		if (valuesLength != sortedKeys.length || (flags != null && flags.length != sortedKeys.length)) {
+			throw new IllegalArgumentException("batch arrays lengths differ");
+		}
+		for (int i = 1; i < sortedKeys.length; i++) {
+			if (sortedKeys[i - 1] >= sortedKeys[i]) {
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+			}
+		}
+	}
+
+	/**
+	 * private AVLTree subtree(IAVLNode node)
+	 *
+	 * returns a tree with node as its root, node is detached from its parent.
+	 * min, max are unknown (null), they are set by adopt at the end of a batch
+	 */
+	private AVLTree subtree(IAVLNode node) {
+		AVLTree tree = new AVLTree(this.augmentation);
+		if (node != null && node.isRealNode()) {
+			node.setParent(null);
+			tree.root = node;
+		}
+		return tree;
+	}
+
+	// takes the root of tree, and sets min,max to the edges of the tree
+	private void adopt(AVLTree tree) {
+		this.removals++;
+		if (tree.empty()) {
+			if (this.cache != null) {
+				this.cache.clear();
+			}
+			this.root = null;
+			this.min = null;
+			this.max = null;
+			return;
+		}
+		this.root = tree.getRoot();
+		this.min = this.root;
+		while (this.min.getLeft().isRealNode()) {
+			this.min = this.min.getLeft();
+		}
+		this.max = this.root;
+		while (this.max.getRight().isRealNode()) {
+			this.max = this.max.getRight();
+		}
+	}
+
+	/**
+	 * private AVLTree unionSorted(AVLTree tree, int[] keys, String[] values, int from, int to, boolean[] inserted, int[] rebalanced)
+	 *
+	 * returns tree with the items of keys[from..to) inserted.
+	 * keys found in the tree are marked false in inserted, the rest true.
+	 */
+	private AVLTree unionSorted(AVLTree tree, int[] keys, String[] values, int from, int to, boolean[] inserted, int[] rebalanced) {
+		if (from >= to) {
+			return tree;
+		}
+		if (tree.empty()) {
+			if (inserted != null) {
+				Arrays.fill(inserted, from, to, true);
+			}
+			return this.subtree(this.buildBalanced(keys, values, from, to));
+		}
+		if (to - from <= BATCH_LEAF) { // few keys left, a search from the subtree root is cheaper than splitting
+			for (int i = from; i < to; i++) {
+				int cnt = tree.insertNode(this.newNode(keys[i], values[i]));
+				if (inserted != null) {
+					inserted[i] = cnt != -1;
 				}
-				else {
-					parent.setRight(node.getRight());
-					node.getRight().setParent(parent);
+				rebalanced[0] += Math.max(cnt, 0);
+			}
+			return tree;
+		}
+		IAVLNode x = tree.getRoot();
+		int at = Arrays.binarySearch(keys, from, to, x.getKey());
+		int smallerTo = (at >= 0) ? at : -at - 1;
+		int biggerFrom = (at >= 0) ? at + 1 : smallerTo;
+		if (at >= 0 && inserted != null) {
+			inserted[at] = false;
+		}
+		AVLTree smaller = this.unionSorted(this.subtree(x.getLeft()), keys, values, from, smallerTo, inserted, rebalanced);
+		AVLTree bigger = this.unionSorted(this.subtree(x.getRight()), keys, values, biggerFrom, to, inserted, rebalanced);
+		rebalanced[0] += smaller.joinTrees(x, bigger);
+		return smaller;
+	}
+
+	/**
+	 * private AVLTree differenceSorted(AVLTree tree, int[] keys, int from, int to, boolean[] deleted, int[] rebalanced)
+	 *
+	 * returns tree without the items of keys[from..to).
+	 * keys found in the tree are marked true in deleted, the rest false.
+	 */
+	private AVLTree differenceSorted(AVLTree tree, int[] keys, int from, int to, boolean[] deleted, int[] rebalanced) {
+		if (from >= to) {
+			return tree;
+		}
+		if (tree.empty()) {
+			if (deleted != null) {
+				Arrays.fill(deleted, from, to, false);
+			}
+			return tree;
+		}
+		if (to - from <= BATCH_LEAF) { // few keys left, a search from the subtree root is cheaper than splitting
+			for (int i = from; i < to; i++) {
+				int cnt = tree.deleteKey(keys[i]);
+				if (deleted != null) {
+					deleted[i] = cnt != -1;
 				}
+				rebalanced[0] += Math.max(cnt, 0);
 			}
-			cnt = this.rebalance(parent, cnt);
-			this.updateSize(parent);
-			return cnt;
+			return tree;
+		}
+		IAVLNode x = tree.getRoot();
+		int at = Arrays.binarySearch(keys, from, to, x.getKey());
+		int smallerTo = (at >= 0) ? at : -at - 1;
+		int biggerFrom = (at >= 0) ? at + 1 : smallerTo;
+		AVLTree smaller = this.differenceSorted(this.subtree(x.getLeft()), keys, from, smallerTo, deleted, rebalanced);
+		AVLTree bigger = this.differenceSorted(this.subtree(x.getRight()), keys, biggerFrom, to, deleted, rebalanced);
+		if (at < 0) {
+			rebalanced[0] += smaller.joinTrees(x, bigger);
+			return smaller;
+		}
+		if (deleted != null) {
+			deleted[at] = true;
+		}
+		rebalanced[0] += smaller.concat(bigger);
+		return smaller;
+	}
+
+	/**
+	 * private int concat(AVLTree bigger)
+	 *
+	 * joins bigger to the tree without a middle node:
+	 * the smallest item of bigger is removed from it and used as the middle node of a join.
+	 * returns the number of rebalancing operations done.
+	 * precondition: keys() < keys(bigger)
+	 */
+	private int concat(AVLTree bigger) {
+		if (bigger.empty()) {
+			return 0;
+		}
+		IAVLNode first = bigger.getRoot();
+		while (first.getLeft().isRealNode()) {
+			first = first.getLeft();
 		}
+		int rebalanced = bigger.deleteKey(first.getKey()); // bigger is a part of a batch, it has no node pool to take first
+		return rebalanced + this.joinTrees(first, bigger);
+	}
 
-		// delete node with 2 sons
-		if (isRight && isLeft) {
-			IAVLNode successor = this.successor(node);
-			IAVLNode sucParent = successor.getParent();
-			// remove successor from tree
-			if (sucParent.getRight().equals(successor)) {
-				sucParent.setRight(successor.getRight());
-				successor.getRight().setParent(sucParent);
-			} else {
-				sucParent.setLeft(successor.getRight());
-				successor.getRight().setParent(sucParent);
-			}
-			// replace node with successor
-			switchNodes(node, successor);
-			// checking whether deleted node is successor's parent
-			if (sucParent.getKey() == k) {
-				cnt = this.rebalance(successor, cnt);
-			} else {
-				cnt = this.rebalance(sucParent, cnt);
-				this.updateSize(sucParent);	
+	/**
+	 * private Split splitAt(int k)
+	 *
+	 * splits the tree by k, like split but k does not have to be in the tree.
+	 * the tree is used up by the split. O(log n).
+	 */
+	private Split splitAt(int k) {
+		Split result = new Split();
+		if (this.empty()) {
+			result.smaller = new AVLTree(this.augmentation);
+			result.bigger = new AVLTree(this.augmentation);
+			return result;
+		}
+		IAVLNode x = this.getRoot();
+		AVLTree left = this.subtree(x.getLeft());
+		AVLTree right = this.subtree(x.getRight());
+		if (k == x.getKey()) {
+			result.smaller = left;
+			result.found = x;
+			result.bigger = right;
+		} else if (k < x.getKey()) {
+			result = left.splitAt(k);
+			result.bigger.joinTrees(x, right);
+		} else {
+			result = right.splitAt(k);
+			left.joinTrees(x, result.smaller);
+			result.smaller = left;
+		}
+		return result;
+	}
+
+	/**
+	 * private static class Split
+	 *
+	 * the result of splitAt: keys(smaller) < k < keys(bigger), found is the node of k or null
+	 */
+	private static class Split {
+		private AVLTree smaller;
+		private IAVLNode found;
+		private AVLTree bigger;
+	}
+
+	/**
+	 * public void union(AVLTree t)
+	 *
+	 * adds the items of t to the tree, for keys in both trees the info of this tree is kept.
+	 * t can not be used afterwards.
+	 * O(m log(n/m + 1)) work for trees of sizes m <= n, large trees are done in parallel.
+	 */
+	public void union(AVLTree t) {
+		this.setOperation(UNION, t);
+	}
+
+	/**
+	 * public void intersection(AVLTree t)
+	 *
+	 * keeps in the tree only the keys that are also in t, with the info of this tree.
+	 * t can not be used afterwards.
+	 * O(m log(n/m + 1)) work for trees of sizes m <= n, large trees are done in parallel.
+	 */
+	public void intersection(AVLTree t) {
+		this.setOperation(INTERSECTION, t);
+	}
+
+	/**
+	 * public void difference(AVLTree t)
+	 *
+	 * removes from the tree the keys that are in t.
+	 * t can not be used afterwards.
+	 * O(m log(n/m + 1)) work for trees of sizes m <= n, large trees are done in parallel.
+	 */
+	public void difference(AVLTree t) {
+		this.setOperation(DIFFERENCE, t);
+	}
+
+	// runs a set operation of the tree and t, the result is kept in the tree and t is left empty
+	private void setOperation(int operation, AVLTree t) {
+		if (t == this) {
+			if (operation == DIFFERENCE) {
+				this.adopt(new AVLTree());
 			}
-			return cnt;
+			return;
 		}
-		return cnt; // never gets here
+		this.checkAugmentation(t);
+		if (this.cache != null && operation != UNION) { // union keeps the info of this tree
+			IAVLNode other = t.getRoot();
+			boolean keepFound = operation == INTERSECTION;
+			this.cache.retain(k -> (other != null && searchNode(other, k).isRealNode()) == keepFound);
+		}
+		AVLTree t1 = this.subtree(this.getRoot());
+		AVLTree t2 = t.subtree(t.getRoot());
+		AVLTree result;
+		if (this.size() + t.size() > PARALLEL_CUTOFF) {
+			result = ForkJoinPool.commonPool().invoke(new SetOperation(operation, t1, t2));
+		} else {
+			result = setOperation(operation, t1, t2);
+		}
+		this.adopt(result);
+		t.adopt(new AVLTree());
 	}
 
+	/**
+	 * private static AVLTree setOperation(int operation, AVLTree t1, AVLTree t2)
+	 *
+	 * t1 is split by the root of t2, the operation is done recursively on the two sides
+	 * and the results are joined back with the root (or concatenated when it is left out).
+	 * above PARALLEL_CUTOFF items the two sides are computed in parallel.
+	 * returns the result, t1 and t2 are used up.
+	 */
+	private static AVLTree setOperation(int operation, AVLTree t1, AVLTree t2) {
+		if (t1.empty()) {
+			return (operation == UNION) ? t2 : t1;
+		}
+		if (t2.empty()) {
+			return (operation == INTERSECTION) ? t2 : t1;
+		}
+		boolean parallel = t1.size() + t2.size() > PARALLEL_CUTOFF;
+		IAVLNode x = t2.getRoot();
+		AVLTree left2 = t2.subtree(x.getLeft());
+		AVLTree right2 = t2.subtree(x.getRight());
+		Split split = t1.splitAt(x.getKey());
+		AVLTree left;
+		AVLTree right;
+		if (parallel) {
+			SetOperation leftTask = new SetOperation(operation, split.smaller, left2);
+			leftTask.fork();
+			right = setOperation(operation, split.bigger, right2);
+			left = leftTask.join();
+		} else {
+			left = setOperation(operation, split.smaller, left2);
+			right = setOperation(operation, split.bigger, right2);
+		}
+		IAVLNode middle = null;
+		if (operation == UNION) {
+			middle = (split.found != null) ? split.found : x;
+		} else if (operation == INTERSECTION) {
+			middle = split.found;
+		}
+		if (middle != null) {
+			left.joinTrees(middle, right);
+		} else {
+			left.concat(right);
+		}
+		return left;
+	}
+
+	/**
+	 * private static class SetOperation
+	 *
+	 * a set operation of two trees, run as a fork-join task
+	 */
+	private static class SetOperation extends RecursiveTask<AVLTree> {
+		private static final long serialVersionUID = 1L;
+		private final int operation;
+		private final AVLTree t1;
+		private final AVLTree t2;
+
+		private SetOperation(int operation, AVLTree t1, AVLTree t2) {
+			this.operation = operation;
+			this.t1 = t1;
+			this.t2 = t2;
+		}
+
+		protected AVLTree compute() {
+			return setOperation(this.operation, this.t1, this.t2);
+		}
+	}
 
 	/**
 	 * public String min()
@@ -561,31 +1472,6 @@ public class AVLTree {
 		return this.max.getValue();
 	}
 
-	/**
-	 * private void inOrder()
-	 * Receive root of AVLTree and empty array in tree's size
-	 * changed the array itself to tree's IAVLNode by in-order walking
-	 */
-	private void inOrder(IAVLNode root, IAVLNode[] nodes) {
-		if (!root.isRealNode()) {
-			return;
-		}
-		inOrder(root.getLeft(), nodes);
-		add_last(nodes, root);
-		inOrder(root.getRight(), nodes);
-
-	}
-	// add root after the last element != null in nodes
-	private void add_last(IAVLNode[] nodes, IAVLNode root) {
-		for(int i = 0;i < nodes.length;i++) {
-			if(nodes[i] == null) {
-				nodes[i] = root;
-				return;
-			}
-		}
-
-	}
-
 	/**
 	 * public int[] keysToArray()
 	 *
@@ -595,16 +1481,43 @@ public class AVLTree {
 	public int[] keysToArray()
 	{
 		int[] arr = new int[this.size()];
-		if (this.empty()) {
-			return arr;
-		}
-		IAVLNode[] nodes = new IAVLNode[this.size()];
-		inOrder(this.getRoot(), nodes);
-		for (int i = 0; i < arr.length; i++) {
-			arr[i] = nodes[i].getKey();
+		this.keysToArray(arr, 0, arr.length);
+		return arr;
+	}
+
+	/**
+	 * public int keysToArray(int[] keys, int offset, int length)
+	 *
+	 * Writes the smallest length keys of the tree, sorted,
+	 * to keys[offset .. offset + length).
+	 * Returns the number of keys written (less than length if the tree is smaller).
+	 * walks from min by successors, O(length) and no allocation.
+	 */
+	public int keysToArray(int[] keys, int offset, int length)
+	{
+		Objects.checkFromIndexSize(offset, length, keys.length);
+		int i = 0;
+		for (IAVLNode node = this.first(); node != null && i < length; node = this.successor(node)) {
+			keys[offset + i++] = node.getKey();
 		}
+		return i;
+	}
 
-		return arr;
+	/**
+	 * public int keysToBuffer(IntBuffer keys)
+	 *
+	 * Writes the smallest keys of the tree, sorted, to keys,
+	 * until the tree or keys.remaining() is over.
+	 * Returns the number of keys written.
+	 */
+	public int keysToBuffer(IntBuffer keys)
+	{
+		int i = 0;
+		for (IAVLNode node = this.first(); node != null && keys.hasRemaining(); node = this.successor(node)) {
+			keys.put(node.getKey());
+			i++;
+		}
+		return i;
 	}
 
 	/**
@@ -617,16 +1530,270 @@ public class AVLTree {
 	public String[] infoToArray()
 	{
 		String[] arr = new String[this.size()];
-		if (this.empty()) {
-			return arr;
+		this.infoToArray(arr, 0, arr.length);
+		return arr;
+	}
+
+	/**
+	 * public int infoToArray(String[] values, int offset, int length)
+	 *
+	 * Writes the info of the smallest length keys of the tree, sorted by their keys,
+	 * to values[offset .. offset + length).
+	 * Returns the number of items written (less than length if the tree is smaller).
+	 */
+	public int infoToArray(String[] values, int offset, int length)
+	{
+		Objects.checkFromIndexSize(offset, length, values.length);
+		int i = 0;
+		for (IAVLNode node = this.first(); node != null && i < length; node = this.successor(node)) {
+			values[offset + i++] = node.getValue();
 		}
-		IAVLNode[] nodes = new IAVLNode[this.size()];
-		inOrder(this.getRoot(), nodes);
-		for (int i = 0; i < arr.length; i++) {
-			arr[i] = nodes[i].getValue();
+		return i;
+	}
+
+	/**
+	 * public int entriesToArrays(int[] keys, String[] values)
+	 *
+	 * Writes the keys and info of the tree, sorted by key, to keys and values
+	 * in one walk, until the tree or the shorter array is over.
+	 * Returns the number of items written.
+	 */
+	public int entriesToArrays(int[] keys, String[] values)
+	{
+		int length = Math.min(keys.length, values.length);
+		int i = 0;
+		for (IAVLNode node = this.first(); node != null && i < length; node = this.successor(node)) {
+			keys[i] = node.getKey();
+			values[i] = node.getValue();
+			i++;
+		}
+		return i;
+	}
+
+	// returns the node of the smallest key, or null if the tree is empty
+	private IAVLNode first() {
+		return this.empty() ? null : this.min;
+	}
+
+	/**
+	 * private IAVLNode ceiling(int k)
+	 *
+	 * returns the node with the smallest key that is bigger / equal to k,
+	 * or null if there is no such node
+	 */
+	private IAVLNode ceiling(int k) {
+		IAVLNode result = null;
+		IAVLNode node = this.empty() ? VIRTUAL : this.getRoot();
+		while (node.isRealNode()) {
+			if (node.getKey() == k) {
+				return node;
+			}
+			if (node.getKey() > k) {
+				result = node;
+				node = node.getLeft();
+			} else {
+				node = node.getRight();
+			}
 		}
+		return result;
+	}
 
-		return arr;
+	/**
+	 * public void forEachInRange(int lo, int hi, IntObjConsumer<String> action)
+	 *
+	 * calls action with every key and info in the tree with lo <= key <= hi,
+	 * in increasing key order. O(log n + k) for k items in the range.
+	 */
+	public void forEachInRange(int lo, int hi, IntObjConsumer<String> action) {
+		for (IAVLNode node = this.ceiling(lo); node != null && node.getKey() <= hi; node = this.successor(node)) {
+			action.accept(node.getKey(), node.getValue());
+		}
+	}
+
+	/**
+	 * private IAVLNode selectNode(int i)
+	 *
+	 * returns the node with the i-th smallest key (starting from 0) using subtree sizes,
+	 * or null if i is out of range
+	 */
+	private IAVLNode selectNode(int i) {
+		if (i < 0 || i >= this.size()) {
+			return null;
+		}
+		IAVLNode node = this.getRoot();
+		while (true) {
+			int leftSize = node.getLeft().getSize();
+			if (i == leftSize) {
+				return node;
+			}
+			if (i < leftSize) {
+				node = node.getLeft();
+			} else {
+				i -= leftSize + 1;
+				node = node.getRight();
+			}
+		}
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the info of the item with the i-th smallest key (starting from 0),
+	 * or null if i < 0 or i >= size(). O(log n).
+	 */
+	public String select(int i) {
+		IAVLNode node = this.selectNode(i);
+		return (node == null) ? null : node.getValue();
+	}
+
+	/**
+	 * public int selectKey(int i)
+	 *
+	 * Returns the i-th smallest key (starting from 0). O(log n).
+	 * precondition: 0 <= i < size()
+	 */
+	public int selectKey(int i) {
+		IAVLNode node = this.selectNode(i);
+		if (node == null) {
+			throw new IndexOutOfBoundsException("index " + i + ", size " + this.size());
+		}
+		return node.getKey();
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree that are smaller than k. O(log n).
+	 * (the key count rank, not the rank of a node)
+	 */
+	public int rank(int k) {
+		int count = 0;
+		IAVLNode node = this.empty() ? VIRTUAL : this.getRoot();
+		while (node.isRealNode()) {
+			if (node.getKey() < k) {
+				count += node.getLeft().getSize() + 1;
+				node = node.getRight();
+			} else {
+				node = node.getLeft();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of keys in the tree with lo <= key <= hi. O(log n).
+	 */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		int atMostHi = (hi == Integer.MAX_VALUE) ? this.size() : this.rank(hi + 1);
+		return atMostHi - this.rank(lo);
+	}
+
+	/**
+	 * public long aggregate(int lo, int hi)
+	 *
+	 * Returns the augmentation of the items with lo <= key <= hi, combined in key order,
+	 * or its identity if there are none. O(log n).
+	 * throws IllegalStateException if the tree was made without an augmentation.
+	 */
+	public long aggregate(int lo, int hi) {
+		Augmentation a = this.augmentation;
+		if (a == null) {
+			throw new IllegalStateException("the tree has no augmentation");
+		}
+		if (this.empty() || lo > hi) {
+			return a.identity();
+		}
+		// the highest node in [lo, hi], its left and right subtrees hold the ends of the range
+		IAVLNode top = this.getRoot();
+		while (top.isRealNode() && (top.getKey() < lo || top.getKey() > hi)) {
+			top = (top.getKey() < lo) ? top.getRight() : top.getLeft();
+		}
+		if (!top.isRealNode()) {
+			return a.identity();
+		}
+		long left = a.identity(); // the keys >= lo below top, found from the right end to the left
+		for (IAVLNode node = top.getLeft(); node.isRealNode(); ) {
+			if (node.getKey() >= lo) {
+				long part = a.combine(a.measure(node.getKey(), node.getValue()), this.aggregateOf(node.getRight()));
+				left = a.combine(part, left);
+				node = node.getLeft();
+			} else {
+				node = node.getRight();
+			}
+		}
+		long right = a.identity(); // the keys <= hi below top, found from the left end to the right
+		for (IAVLNode node = top.getRight(); node.isRealNode(); ) {
+			if (node.getKey() <= hi) {
+				long part = a.combine(this.aggregateOf(node.getLeft()), a.measure(node.getKey(), node.getValue()));
+				right = a.combine(right, part);
+				node = node.getRight();
+			} else {
+				node = node.getLeft();
+			}
+		}
+		return a.combine(a.combine(left, a.measure(top.getKey(), top.getValue())), right);
+	}
+
+	// joins and set operations reuse the augmentation kept in the nodes of t
+	private void checkAugmentation(AVLTree t) {
+		if (t.augmentation != this.augmentation) {
+			throw new IllegalArgumentException("the trees have different augmentations");
+		}
+	}
+
+	/**
+	 * public Cursor cursor()
+	 *
+	 * Returns a new cursor of the tree, positioned on the smallest key.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * public Spliterator.OfInt keySpliterator()
+	 *
+	 * Returns a spliterator of the keys in increasing order, SIZED and SUBSIZED: the subtree sizes
+	 * split the keys into halves of known size in O(log n), without copying them.
+	 * The tree must not be changed while the spliterator is used.
+	 */
+	public Spliterator.OfInt keySpliterator() {
+		return new KeySpliterator(0, this.size(), null);
+	}
+
+	/**
+	 * public IntStream keyStream()
+	 *
+	 * Returns a stream of the keys in increasing order, made by keySpliterator.
+	 * keyStream().parallel() splits the work between threads without copying the tree.
+	 * The tree must not be changed while the stream is used.
+	 */
+	public IntStream keyStream() {
+		return StreamSupport.intStream(this.keySpliterator(), false);
+	}
+
+	/**
+	 * public Stream<Map.Entry<Integer, String>> entryStream()
+	 *
+	 * Returns a stream of the items (key, info) in increasing key order, split like keyStream.
+	 * The tree must not be changed while the stream is used.
+	 */
+	public Stream<Map.Entry<Integer, String>> entryStream() {
+		return StreamSupport.stream(new EntrySpliterator(0, this.size(), null), false);
+	}
+
+	/**
+	 * public Finger finger()
+	 *
+	 * Returns a new finger of the tree, positioned on the largest key.
+	 */
+	public Finger finger() {
+		return new Finger();
 	}
 
 	/**
@@ -639,9 +1806,83 @@ public class AVLTree {
 	 */
 	public int size()
 	{
+		if (this.empty()) {
+			return 0;
+		}
 		return this.getRoot().getSize();
 	}
 
+	/**
+	 * public void checkInvariants()
+	 *
+	 * walks the whole tree and throws IllegalStateException at the first node that breaks an invariant:
+	 * keys in search tree order, parent pointers matching the sons, rank and height equal to
+	 * 1 + the larger rank of the sons, rank differences of 1 or 2, size equal to 1 + the sizes of the sons,
+	 * the augmentation made of the sons' ones, min / max pointing at the smallest and largest nodes
+	 * and cached info equal to the tree's.
+	 * takes O(n), meant for tests and debugging, not for the hot path.
+	 */
+	public void checkInvariants() {
+		if (this.cache != null) {
+			this.cache.forEach((k, value) -> {
+				IAVLNode node = this.empty() ? VIRTUAL : searchNode(this.root, k);
+				if (!node.isRealNode() || node.getValue() != value) {
+					throw new IllegalStateException("cached key " + k + " is not in the tree with its info");
+				}
+			});
+		}
+		if (this.empty()) {
+			return;
+		}
+		if (this.root.getParent() != null) {
+			throw new IllegalStateException("root " + this.root.getKey() + " has a parent");
+		}
+		this.checkSubtree(this.root, Long.MIN_VALUE, Long.MAX_VALUE);
+		IAVLNode leftmost = this.root;
+		while (leftmost.getLeft().isRealNode()) {
+			leftmost = leftmost.getLeft();
+		}
+		IAVLNode rightmost = this.root;
+		while (rightmost.getRight().isRealNode()) {
+			rightmost = rightmost.getRight();
+		}
+		if (this.min != leftmost || this.max != rightmost) {
+			throw new IllegalStateException("min / max do not point at keys " + leftmost.getKey() + " / " + rightmost.getKey());
+		}
+	}
+
+	// checks the invariants of the subtree of node, whose keys must be in (lo, hi)
+	private void checkSubtree(IAVLNode node, long lo, long hi) {
+		int k = node.getKey();
+		if (k <= lo || k >= hi) {
+			throw new IllegalStateException("key " + k + " is out of search tree order");
+		}
+		IAVLNode left = node.getLeft();
+		IAVLNode right = node.getRight();
+		if ((left.isRealNode() && left.getParent() != node) || (right.isRealNode() && right.getParent() != node)) {
+			throw new IllegalStateException("a son of " + k + " has another parent");
+		}
+		int rank = Math.max(left.getRank(), right.getRank()) + 1;
+		if (node.getRank() != rank || node.getHeight() != rank) {
+			throw new IllegalStateException("node " + k + " has rank " + node.getRank() + " and height " + node.getHeight() + ", expected " + rank);
+		}
+		if (rank - left.getRank() > 2 || rank - right.getRank() > 2) {
+			throw new IllegalStateException("node " + k + " is not balanced");
+		}
+		if (node.getSize() != left.getSize() + right.getSize() + 1) {
+			throw new IllegalStateException("node " + k + " has size " + node.getSize() + ", expected " + (left.getSize() + right.getSize() + 1));
+		}
+		if (this.augmentation != null && this.aggregateOf(node) != this.combined(node)) {
+			throw new IllegalStateException("node " + k + " has augmentation " + this.aggregateOf(node) + ", expected " + this.combined(node));
+		}
+		if (left.isRealNode()) {
+			checkSubtree(left, lo, k);
+		}
+		if (right.isRealNode()) {
+			checkSubtree(right, k, hi);
+		}
+	}
+
 	/**
 	 * public int getRoot()
 	 *
@@ -664,16 +1905,36 @@ public class AVLTree {
 	 */   
 	public AVLTree[] split(int x)
 	{
-		IAVLNode nodex = this.searchRec(this.root, x);		
+		IAVLNode nodex = searchNode(this.root, x);		
+		this.removals++;
 		AVLTree smaller = new AVLTree(nodex.getLeft(), this);
 		AVLTree bigger = new AVLTree(nodex.getRight(), this);
-		// finding min,max of the trees
-		bigger.max = this.max;
-		bigger.min = this.successor(nodex);
-		smaller.max = this.predecessor(nodex);
-		smaller.min = this.min;
+		// finding min,max of the trees before the joins change the structure
+		IAVLNode biggerMin = this.successor(nodex);
+		IAVLNode smallerMax = this.predecessor(nodex);
 		AVLTree[] trees = {smaller, bigger};
 		split_rec(x,nodex, smaller, bigger);//building the trees
+		// joins along the way copy min,max of partial trees, so set them at the end
+		bigger.max = (biggerMin == null) ? null : this.max;
+		bigger.min = biggerMin;
+		smaller.max = smallerMax;
+		smaller.min = (smallerMax == null) ? null : this.min;
+		if (this.cache != null) { // each half keeps the cached keys on its side
+			smaller.setCacheCapacity(this.cache.capacity());
+			bigger.setCacheCapacity(this.cache.capacity());
+			this.cache.forEach((k, value) -> {
+				if (k != x) {
+					((k < x) ? smaller : bigger).cache.put(k, value);
+				}
+			});
+			this.cache.clear();
+		}
+		// the halves pool nodes like the tree, which hands its pooled nodes to smaller
+		smaller.poolCapacity = this.poolCapacity;
+		bigger.poolCapacity = this.poolCapacity;
+		smaller.pool = this.pool;
+		smaller.pooled = this.pooled;
+		this.trim();
 		return trees;
 	}
 
@@ -706,21 +1967,34 @@ public class AVLTree {
 	 * private IAVLNode travelToRank(AVLTree tree, int rank)
 	 *
 	 * receive AVLTree and rank
-	 * and return node in left spine of AVLTree,
-	 * with rank that smaller / equal to given rank
+	 * and return the parent of the first node in left (right) spine of AVLTree,
+	 * with rank that smaller / equal to given rank.
+	 * the node itself might be virtual, so its parent is returned.
+	 * precondition: tree.getRoot().getRank() > rank
 	 */   
 	private IAVLNode travelToRank(AVLTree tree, int rank, int right) {
-		IAVLNode node = tree.getRoot();
+		IAVLNode parent = tree.getRoot();
 		if(right == 0) {
-			while (node.getRank() > rank) {
-				node = node.getLeft();
+			while (parent.getLeft().getRank() > rank) {
+				parent = parent.getLeft();
 			}
 		}else {
-			while (node.getRank() > rank) {
-				node = node.getRight();
+			while (parent.getRight().getRank() > rank) {
+				parent = parent.getRight();
 			}
 		}
-		return node;
+		return parent;
+	}
+
+	// resets x to a single node with no sons, so it can be inserted
+	private IAVLNode singleNode(IAVLNode x) {
+		x.setLeft(VIRTUAL);
+		x.setRight(VIRTUAL);
+		x.setParent(null);
+		x.setRank(0);
+		x.setHeight(0);
+		x.setSize(1);
+		return x;
 	}
 
 	/**
@@ -729,26 +2003,46 @@ public class AVLTree {
 	 * joins t and x with the tree. 	
 	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
 	 * precondition: keys(x,t) < keys() or keys(x,t) > keys(). t/tree might be empty (rank = -1).
+	 * t has the same augmentation as the tree (IllegalArgumentException otherwise),
+	 * and if there is one, x is replaced by a copy that can keep it unless it was made by the tree.
 	 * postcondition: none
 	 */
 	public int join(IAVLNode x, AVLTree t)
 	{
-		int result = -1;
+		this.checkAugmentation(t);
+		if (this.augmentation != null && !(x instanceof AugmentedNode)) {
+			x = this.newNode(x.getKey(), x.getValue());
+		}
+		int thisRank = this.empty() ? -1 : this.getRoot().getRank();
+		int tRank = t.empty() ? -1 : t.getRoot().getRank();
+		this.joinTrees(x, t);
+		t.removals++; // t's nodes are in the tree now, fingers of t start over
+		if (t.cache != null) {
+			t.cache.clear();
+		}
+		return Math.abs(thisRank - tRank) + 1;
+	}
+
+	/**
+	 * private int joinTrees(IAVLNode x, AVLTree t)
+	 *
+	 * joins t and x with the tree, as described in join.
+	 * Returns the number of rebalancing operations done.
+	 */
+	private int joinTrees(IAVLNode x, AVLTree t)
+	{
+		int rebalanced = 0;
 		if (this.empty() || t.empty()) { // join when t/tree is empty
 			if (this.empty()) {
-				if(!t.empty()) {
-					result = t.getRoot().getRank();
-				}
-				t.insert(x.getKey(), x.getValue());
+				rebalanced = t.insertNode(this.singleNode(x));
 				this.root = t.getRoot();
 				this.min = t.min;
 				this.max = t.max;
 			}
 			else {
-				result = this.getRoot().getRank();
-				this.insert(x.getKey(), x.getValue());
+				rebalanced = this.insertNode(this.singleNode(x));
 			}
-			return Math.abs(result -(-1)) + 1;
+			return rebalanced;
 		}
 
 		int thisRank = this.getRoot().getRank();
@@ -756,60 +2050,64 @@ public class AVLTree {
 		int complexity = thisRank - tRank;
 		if(complexity < 0) { // rank of tree < rank of t
 			if(this.getRoot().getKey() < x.getKey()) {
-				IAVLNode node = this.travelToRank(t, thisRank, 0);
+				IAVLNode parent = this.travelToRank(t, thisRank, 0);
+				IAVLNode node = parent.getLeft();
 				x.setRank(thisRank + 1);
 				x.setHeight(thisRank + 1);
-				x.setParent(node.getParent());
-				node.getParent().setLeft(x);
+				x.setParent(parent);
+				parent.setLeft(x);
 				node.setParent(x);
 				x.setRight(node);
 				this.getRoot().setParent(x);
 				x.setLeft(this.getRoot());
 				this.root = t.getRoot();
-				this.rebalance(x.getParent(), 0);
-				this.updateSize(x);
+				fixSize(x);
+				rebalanced = this.rebalance(x.getParent(), 0);
 				this.max = t.max;//update max
 			} else{
-				IAVLNode node = this.travelToRank(t, thisRank, 1);
+				IAVLNode parent = this.travelToRank(t, thisRank, 1);
+				IAVLNode node = parent.getRight();
 				x.setRank(thisRank + 1);
 				x.setHeight(thisRank + 1);
-				x.setParent(node.getParent());
-				node.getParent().setRight(x);
+				x.setParent(parent);
+				parent.setRight(x);
 				node.setParent(x);
 				x.setRight(this.getRoot());
 				this.getRoot().setParent(x);
 				x.setLeft(node);
 				this.root = t.getRoot();
-				this.rebalance(x.getParent(), 0);
-				this.updateSize(x);
+				fixSize(x);
+				rebalanced = this.rebalance(x.getParent(), 0);
 				this.min = t.min; // update min
 			}
 		} else if(complexity > 0) {
 			if(this.getRoot().getKey() < x.getKey()) {
-				IAVLNode node = this.travelToRank(this, tRank, 1);
+				IAVLNode parent = this.travelToRank(this, tRank, 1);
+				IAVLNode node = parent.getRight();
 				x.setRank(tRank + 1);
 				x.setHeight(tRank + 1);
-				x.setParent(node.getParent());
-				node.getParent().setRight(x);
+				x.setParent(parent);
+				parent.setRight(x);
 				node.setParent(x);
 				x.setRight(t.getRoot());
 				t.getRoot().setParent(x);
 				x.setLeft(node);
-				this.rebalance(x.getParent(), 0);
-				this.updateSize(x);
+				fixSize(x);
+				rebalanced = this.rebalance(x.getParent(), 0);
 				this.max = t.max;
 			} else {
-				IAVLNode node = this.travelToRank(this, tRank, 0);
+				IAVLNode parent = this.travelToRank(this, tRank, 0);
+				IAVLNode node = parent.getLeft();
 				x.setRank(tRank + 1);
 				x.setHeight(tRank + 1);
-				x.setParent(node.getParent());
-				node.getParent().setLeft(x);
+				x.setParent(parent);
+				parent.setLeft(x);
 				node.setParent(x);
 				x.setRight(node);
 				t.getRoot().setParent(x);
 				x.setLeft(t.getRoot());
-				this.rebalance(x.getParent(), 0);
-				this.updateSize(x);
+				fixSize(x);
+				rebalanced = this.rebalance(x.getParent(), 0);
 				this.min = t.min;
 			}	
 		}else {
@@ -818,11 +2116,13 @@ public class AVLTree {
 				this.getRoot().setParent(x);
 				x.setRight(t.getRoot());
 				t.getRoot().setParent(x);
+				this.max = t.max;
 			}else {
 				x.setLeft(t.getRoot());
 				t.getRoot().setParent(x);
 				x.setRight(this.getRoot());
 				this.getRoot().setParent(x);
+				this.min = t.min;
 			}
 			this.root = x;
 			x.setHeight(Math.max(x.getLeft().getHeight(), x.getRight().getHeight()) + 1);
@@ -830,8 +2130,391 @@ public class AVLTree {
 			this.updateSize(x);
 			x.setParent(null);
 		}
-		System.out.println(Math.abs(complexity) + 1);
-		return Math.abs(complexity) + 1;
+		return rebalanced;
+	}
+
+	/**
+	 * public interface IntObjConsumer
+	 *
+	 * receives a key and its info, without boxing the key
+	 */
+	public interface IntObjConsumer<T> {
+		public void accept(int key, T value);
+	}
+
+	/**
+	 * public interface Augmentation
+	 *
+	 * A monoid over long kept by every node of a tree for its subtree, so aggregate(lo, hi) takes O(log n).
+	 * combine must be associative and identity neutral for it; it need not be commutative,
+	 * items are combined in key order.
+	 * measure is called again for each node on the path of every change, so it should be cheap.
+	 */
+	public interface Augmentation {
+		public long identity();
+
+		// the value of a single item
+		public long measure(int key, String value);
+
+		public long combine(long left, long right);
+
+		// the number of items
+		public static Augmentation count() {
+			return of(0, (key, value) -> 1, (left, right) -> left + right);
+		}
+
+		// the sum of measure over the items
+		public static Augmentation sum(Measure measure) {
+			return of(0, measure, (left, right) -> left + right);
+		}
+
+		// the smallest measure of the items, Long.MAX_VALUE if there are none
+		public static Augmentation min(Measure measure) {
+			return of(Long.MAX_VALUE, measure, Math::min);
+		}
+
+		// the largest measure of the items, Long.MIN_VALUE if there are none
+		public static Augmentation max(Measure measure) {
+			return of(Long.MIN_VALUE, measure, Math::max);
+		}
+
+		public static Augmentation of(long identity, Measure measure, LongBinaryOperator combine) {
+			Objects.requireNonNull(measure);
+			Objects.requireNonNull(combine);
+			return new Augmentation() {
+				@Override
+				public long identity() {
+					return identity;
+				}
+
+				@Override
+				public long measure(int key, String value) {
+					return measure.of(key, value);
+				}
+
+				@Override
+				public long combine(long left, long right) {
+					return combine.applyAsLong(left, right);
+				}
+			};
+		}
+	}
+
+	/**
+	 * public interface Measure
+	 *
+	 * the value of an item in an Augmentation, e.g. (key, value) -> Long.parseLong(value)
+	 */
+	public interface Measure {
+		public long of(int key, String value);
+	}
+
+	/**
+	 * public class Cursor
+	 *
+	 * A position in the tree that moves in key order using the parent pointers,
+	 * without recursion or allocation. seek is O(log n), next / prev are O(1) amortized.
+	 * A cursor must not be used after the tree was changed, other than by the cursor itself.
+	 */
+	public class Cursor {
+		private IAVLNode node;
+
+		private Cursor() {
+			this.node = AVLTree.this.first();
+		}
+
+		/**
+		 * public boolean seek(int k)
+		 *
+		 * moves to the smallest key that is bigger / equal to k.
+		 * returns true if there is such a key.
+		 */
+		public boolean seek(int k) {
+			this.node = AVLTree.this.ceiling(k);
+			return this.node != null;
+		}
+
+		/**
+		 * public boolean first()
+		 *
+		 * moves to the smallest key, returns false if the tree is empty
+		 */
+		public boolean first() {
+			this.node = AVLTree.this.first();
+			return this.node != null;
+		}
+
+		/**
+		 * public boolean last()
+		 *
+		 * moves to the largest key, returns false if the tree is empty
+		 */
+		public boolean last() {
+			this.node = AVLTree.this.empty() ? null : AVLTree.this.max;
+			return this.node != null;
+		}
+
+		/**
+		 * public boolean next()
+		 *
+		 * moves to the next key, returns false (and becomes invalid) after the largest key
+		 */
+		public boolean next() {
+			if (this.node != null) {
+				this.node = AVLTree.this.successor(this.node);
+			}
+			return this.node != null;
+		}
+
+		/**
+		 * public boolean prev()
+		 *
+		 * moves to the previous key, returns false (and becomes invalid) before the smallest key
+		 */
+		public boolean prev() {
+			if (this.node != null) {
+				this.node = AVLTree.this.predecessor(this.node);
+			}
+			return this.node != null;
+		}
+
+		/**
+		 * public boolean valid()
+		 *
+		 * returns true if the cursor is positioned on a key
+		 */
+		public boolean valid() {
+			return this.node != null;
+		}
+
+		/**
+		 * public int key()
+		 *
+		 * returns the key the cursor is positioned on.
+		 * precondition: valid()
+		 */
+		public int key() {
+			if (this.node == null) {
+				throw new NoSuchElementException();
+			}
+			return this.node.getKey();
+		}
+
+		/**
+		 * public String value()
+		 *
+		 * returns the info of the key the cursor is positioned on.
+		 * precondition: valid()
+		 */
+		public String value() {
+			if (this.node == null) {
+				throw new NoSuchElementException();
+			}
+			return this.node.getValue();
+		}
+	}
+
+	/**
+	 * public class Finger
+	 *
+	 * A position in the tree that search and insert start from instead of the root.
+	 * each operation climbs from the last node it visited to the lowest ancestor whose subtree may hold the key,
+	 * so keys d apart from the previous one usually cost O(log d) comparisons instead of O(log n).
+	 * for keys far apart the climb is wasted and a search from the root is about twice as fast.
+	 * the subtree sizes above the changed node are still fixed up to the root.
+	 * A finger stays valid across inserts made through it or through the tree.
+	 * after a delete, split, join into another tree or batch / set operation, its next operation starts from the root.
+	 */
+	public class Finger {
+		private IAVLNode node;
+		private int removals;
+
+		private Finger() {
+			this.node = AVLTree.this.empty() ? null : AVLTree.this.max;
+			this.removals = AVLTree.this.removals;
+		}
+
+		/**
+		 * public String search(int k)
+		 *
+		 * returns the info of an item with key k if it exists in the tree, otherwise null.
+		 * the finger moves to key k, or to where it would be inserted.
+		 */
+		public String search(int k) {
+			if (!METRICS) {
+				return this.find(k);
+			}
+			long start = System.nanoTime();
+			String value = this.find(k);
+			AVLTreeMetrics.SEARCH.record(System.nanoTime() - start);
+			return value;
+		}
+
+		private String find(int k) {
+			IAVLNode start = this.start();
+			if (start == null) {
+				return null;
+			}
+			this.node = AVLTree.this.searchFrom(start, k);
+			return (this.node.getKey() == k) ? this.node.getValue() : null;
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 *
+		 * inserts an item with key k and info i, and returns the same as AVLTree.insert.
+		 * the finger moves to key k.
+		 */
+		public int insert(int k, String i) {
+			if (!METRICS) {
+				return this.add(AVLTree.this.newNode(k, i));
+			}
+			long start = System.nanoTime();
+			return inserted(start, this.add(AVLTree.this.newNode(k, i)));
+		}
+
+		private int add(IAVLNode newNode) {
+			IAVLNode start = this.start();
+			if (start == null) {
+				int cnt = AVLTree.this.insertNode(newNode);
+				this.node = newNode;
+				return cnt;
+			}
+			IAVLNode parent = AVLTree.this.searchFrom(start, newNode.getKey());
+			int cnt = AVLTree.this.insertAt(parent, newNode);
+			this.node = (cnt == -1) ? parent : newNode;
+			return cnt;
+		}
+
+		/**
+		 * public int key()
+		 *
+		 * returns the key of the node the finger is on.
+		 * precondition: the tree is not empty
+		 */
+		public int key() {
+			IAVLNode start = this.start();
+			if (start == null) {
+				throw new NoSuchElementException();
+			}
+			return start.getKey();
+		}
+
+		// returns the node to start from, null if the tree is empty
+		private IAVLNode start() {
+			if (AVLTree.this.empty()) {
+				return null;
+			}
+			if (this.node == null || this.removals != AVLTree.this.removals) {
+				this.node = AVLTree.this.root;
+				this.removals = AVLTree.this.removals;
+			}
+			return this.node;
+		}
+	}
+
+	/**
+	 * private abstract class Span
+	 *
+	 * The items of ranks [from, to) of the tree, the state of its spliterators.
+	 * node is the item of rank from, found by selectNode when the traversal starts, then by successor.
+	 * split gives the lower half of the ranks to a new span, so both halves know their exact size.
+	 */
+	private abstract class Span {
+		protected int from;
+		protected final int to;
+		protected IAVLNode node; // null until the traversal of the span starts
+
+		private Span(int from, int to, IAVLNode node) {
+			this.from = from;
+			this.to = to;
+			this.node = node;
+		}
+
+		// returns the item of rank from and moves to the next one. precondition: from < to
+		protected IAVLNode next() {
+			IAVLNode current = (this.node != null) ? this.node : AVLTree.this.selectNode(this.from);
+			this.from++;
+			this.node = (this.from < this.to) ? AVLTree.this.successor(current) : null;
+			return current;
+		}
+
+		// returns the rank the span is split at, and keeps the ranks above it. -1 if fewer than 2 are left
+		protected int split() {
+			if (this.to - this.from < 2) {
+				return -1;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			this.from = mid;
+			this.node = null;
+			return mid;
+		}
+
+		public long estimateSize() {
+			return this.to - this.from;
+		}
+
+		public int characteristics() {
+			return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED | Spliterator.SORTED
+					| Spliterator.DISTINCT | Spliterator.NONNULL;
+		}
+	}
+
+	private final class KeySpliterator extends Span implements Spliterator.OfInt {
+		private KeySpliterator(int from, int to, IAVLNode node) {
+			super(from, to, node);
+		}
+
+		public boolean tryAdvance(IntConsumer action) {
+			if (this.from >= this.to) {
+				return false;
+			}
+			action.accept(this.next().getKey());
+			return true;
+		}
+
+		public void forEachRemaining(IntConsumer action) {
+			while (this.from < this.to) {
+				action.accept(this.next().getKey());
+			}
+		}
+
+		public Spliterator.OfInt trySplit() {
+			int from = this.from;
+			IAVLNode node = this.node;
+			int mid = this.split();
+			return (mid < 0) ? null : new KeySpliterator(from, mid, node);
+		}
+
+		public Comparator<? super Integer> getComparator() {
+			return null; // natural order of the keys
+		}
+	}
+
+	private final class EntrySpliterator extends Span implements Spliterator<Map.Entry<Integer, String>> {
+		private EntrySpliterator(int from, int to, IAVLNode node) {
+			super(from, to, node);
+		}
+
+		public boolean tryAdvance(Consumer<? super Map.Entry<Integer, String>> action) {
+			if (this.from >= this.to) {
+				return false;
+			}
+			IAVLNode node = this.next();
+			action.accept(new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue()));
+			return true;
+		}
+
+		public Spliterator<Map.Entry<Integer, String>> trySplit() {
+			int from = this.from;
+			IAVLNode node = this.node;
+			int mid = this.split();
+			return (mid < 0) ? null : new EntrySpliterator(from, mid, node);
+		}
+
+		public Comparator<? super Map.Entry<Integer, String>> getComparator() {
+			return Map.Entry.comparingByKey();
+		}
 	}
 
 	/**
@@ -879,25 +2562,12 @@ public class AVLTree {
 			this.key = key;
 			this.value = value;
 			this.height = 0;
-			this.left = virtualNode(this);
-			this.right = virtualNode(this);
+			this.left = VIRTUAL;
+			this.right = VIRTUAL;
 			this.rank = 0;
 			this.size = 1;
 		}
 
-		private AVLNode(IAVLNode parent) { //constructor for virtualNode
-			this.key = -1;
-			this.height = -1;
-			this.parent = parent;
-			this.rank = -1;
-			this.size = 0;
-		}
-
-		private IAVLNode virtualNode(IAVLNode parent) { //create new virtualNode
-			IAVLNode virtual = new AVLNode(parent);
-			return virtual;
-		}
-
 		public int getKey()
 		{
 			return this.key;
@@ -932,7 +2602,7 @@ public class AVLTree {
 		}
 		public boolean isRealNode() // returns True if this is a non-virtual AVL node
 		{
-			return this.getKey() != -1;
+			return true;
 		}
 		public void setHeight(int height)
 		{
@@ -960,6 +2630,45 @@ public class AVLTree {
 		}
 	}
 
+	/**
+	 * private class AugmentedNode
+	 *
+	 * A node of a tree with an augmentation, which keeps the augmentation of its sub-tree.
+	 * only such trees make them, so the nodes of other trees do not grow by the field.
+	 */
+	private class AugmentedNode extends AVLNode {
+		private long aggregate;
+
+		private AugmentedNode(int key, String value) {
+			super(key, value);
+		}
+	}
+
+	/**
+	 * private static class VirtualNode
+	 *
+	 * The single virtual leaf shared by all trees.
+	 * It has no parent and no sons, and it can not be modified,
+	 * setParent is ignored so callers can treat it like any other son.
+	 */
+	private static class VirtualNode implements IAVLNode{
+		public int getKey() { return -1; }
+		public String getValue() { return null; }
+		public void setLeft(IAVLNode node) { throw new UnsupportedOperationException(); }
+		public IAVLNode getLeft() { return null; }
+		public void setRight(IAVLNode node) { throw new UnsupportedOperationException(); }
+		public IAVLNode getRight() { return null; }
+		public void setParent(IAVLNode node) { } // virtual leaf has no parent
+		public IAVLNode getParent() { return null; }
+		public boolean isRealNode() { return false; }
+		public void setHeight(int height) { throw new UnsupportedOperationException(); }
+		public int getHeight() { return -1; }
+		public void setRank(int rank) { throw new UnsupportedOperationException(); }
+		public int getRank() { return -1; }
+		public int getSize() { return 0; }
+		public void setSize(int size) { throw new UnsupportedOperationException(); }
+	}
+
 }
 
 
@@ -0,0 +1,245 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *
+ * AVLTreeMetrics
+ *
+ * Counters of the rebalancing work and latency of all the AVLTrees of the JVM,
+ * published as the MXBean avltree:type=AVLTreeMetrics.
+ *
+ * They are off unless the JVM is started with -Davltree.metrics=true.
+ * AVLTree checks the flag through a static final field, so when it is off
+ * the JIT removes the counting code and the tree runs as if it was not there.
+ * The counters are LongAdders, so trees used by many threads do not contend on them.
+ *
+ * Latency histograms have a bucket per power of 2 nanoseconds:
+ * bucket 0 counts 0ns, and bucket i counts [2^(i-1), 2^i) ns.
+ *
+ */
+public final class AVLTreeMetrics implements AVLTreeMetricsMXBean {
+	public static final String PROPERTY = "avltree.metrics";
+	static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	static final LongAdder LEFT_ROTATIONS = new LongAdder();
+	static final LongAdder RIGHT_ROTATIONS = new LongAdder();
+	static final LongAdder DOUBLE_ROTATIONS = new LongAdder();
+	static final LongAdder PROMOTIONS = new LongAdder();
+	static final LongAdder DEMOTIONS = new LongAdder();
+	static final LongAdder REBALANCES = new LongAdder();
+	static final Latency INSERT = new Latency();
+	static final Latency DELETE = new Latency();
+	static final Latency SEARCH = new Latency();
+
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new AVLTreeMetrics(), new ObjectName("avltree:type=AVLTreeMetrics"));
+			} catch (JMException e) {
+				throw new IllegalStateException("could not register the AVLTree metrics", e);
+			}
+		}
+	}
+
+	private AVLTreeMetrics() {
+	}
+
+	/**
+	 * public static boolean enabled()
+	 *
+	 * returns true if the JVM was started with -Davltree.metrics=true
+	 */
+	public static boolean enabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * public static ObjectName register(String name, AVLTree tree)
+	 *
+	 * publishes the size and height of tree as the MXBean avltree:type=AVLTree,name=name, and returns its name.
+	 * it is read without locking, so a tree changed by other threads may show a value a little behind.
+	 * unregister it with ManagementFactory.getPlatformMBeanServer().unregisterMBean when the tree is dropped.
+	 * works also when the metrics are off, it costs nothing until it is read.
+	 */
+	public static ObjectName register(String name, AVLTree tree) throws JMException {
+		ObjectName objectName = new ObjectName("avltree:type=AVLTree,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new Shape(tree), objectName);
+		return objectName;
+	}
+
+	@Override
+	public long getLeftRotations() {
+		return LEFT_ROTATIONS.sum();
+	}
+
+	@Override
+	public long getRightRotations() {
+		return RIGHT_ROTATIONS.sum();
+	}
+
+	@Override
+	public long getDoubleRotations() {
+		return DOUBLE_ROTATIONS.sum();
+	}
+
+	@Override
+	public long getPromotions() {
+		return PROMOTIONS.sum();
+	}
+
+	@Override
+	public long getDemotions() {
+		return DEMOTIONS.sum();
+	}
+
+	@Override
+	public long getRebalanceOperations() {
+		return REBALANCES.sum();
+	}
+
+	@Override
+	public long getInserts() {
+		return INSERT.count();
+	}
+
+	@Override
+	public long getDeletes() {
+		return DELETE.count();
+	}
+
+	@Override
+	public long getSearches() {
+		return SEARCH.count();
+	}
+
+	@Override
+	public long[] getInsertLatencyHistogram() {
+		return INSERT.histogram();
+	}
+
+	@Override
+	public long[] getDeleteLatencyHistogram() {
+		return DELETE.histogram();
+	}
+
+	@Override
+	public long[] getSearchLatencyHistogram() {
+		return SEARCH.histogram();
+	}
+
+	@Override
+	public long getInsertLatencyP99() {
+		return INSERT.percentile(0.99);
+	}
+
+	@Override
+	public long getDeleteLatencyP99() {
+		return DELETE.percentile(0.99);
+	}
+
+	@Override
+	public long getSearchLatencyP99() {
+		return SEARCH.percentile(0.99);
+	}
+
+	@Override
+	public void reset() {
+		LEFT_ROTATIONS.reset();
+		RIGHT_ROTATIONS.reset();
+		DOUBLE_ROTATIONS.reset();
+		PROMOTIONS.reset();
+		DEMOTIONS.reset();
+		REBALANCES.reset();
+		INSERT.reset();
+		DELETE.reset();
+		SEARCH.reset();
+	}
+
+	/**
+	 * static final class Latency
+	 *
+	 * A histogram of operation latencies, a LongAdder per power of 2 nanoseconds.
+	 */
+	static final class Latency {
+		private static final int BUCKETS = 40; // the last one counts everything from 2^38ns (4.5 minutes)
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+		private Latency() {
+			for (int i = 0; i < BUCKETS; i++) {
+				this.buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)))].increment();
+		}
+
+		private long count() {
+			long count = 0;
+			for (LongAdder bucket : this.buckets) {
+				count += bucket.sum();
+			}
+			return count;
+		}
+
+		private long[] histogram() {
+			long[] histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = this.buckets[i].sum();
+			}
+			return histogram;
+		}
+
+		// returns the upper bound of the bucket holding the p-th fraction of the operations, 0 if there are none
+		private long percentile(double p) {
+			long[] histogram = this.histogram();
+			long count = 0;
+			for (long c : histogram) {
+				count += c;
+			}
+			long rank = (long) Math.ceil(p * count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= rank && seen > 0) {
+					return (i == 0) ? 0 : (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+
+		private void reset() {
+			for (LongAdder bucket : this.buckets) {
+				bucket.reset();
+			}
+		}
+	}
+
+	/**
+	 * private static class Shape
+	 *
+	 * the MXBean of one tree registered by register.
+	 */
+	private static final class Shape implements AVLTreeShapeMXBean {
+		private final AVLTree tree;
+
+		private Shape(AVLTree tree) {
+			this.tree = tree;
+		}
+
+		@Override
+		public int getSize() {
+			return this.tree.size();
+		}
+
+		@Override
+		public int getHeight() {
+			AVLTree.IAVLNode root = this.tree.getRoot();
+			return (root == null) ? -1 : root.getHeight();
+		}
+	}
+}
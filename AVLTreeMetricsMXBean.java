@@ -0,0 +1,41 @@
+/**
+ * public interface AVLTreeMetricsMXBean
+ *
+ * The counters since the JVM started or since the last reset.
+ * Promotions and demotions include the rank fixes done by rotations.
+ */
+public interface AVLTreeMetricsMXBean {
+	long getLeftRotations();
+
+	long getRightRotations();
+
+	long getDoubleRotations();
+
+	long getPromotions();
+
+	long getDemotions();
+
+	// sum of the rebalance counts returned by insert and delete
+	long getRebalanceOperations();
+
+	long getInserts();
+
+	long getDeletes();
+
+	long getSearches();
+
+	long[] getInsertLatencyHistogram();
+
+	long[] getDeleteLatencyHistogram();
+
+	long[] getSearchLatencyHistogram();
+
+	// upper bound of the bucket of the 99th percentile, in nanoseconds
+	long getInsertLatencyP99();
+
+	long getDeleteLatencyP99();
+
+	long getSearchLatencyP99();
+
+	void reset();
+}
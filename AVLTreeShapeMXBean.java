@@ -0,0 +1,10 @@
+/**
+ * public interface AVLTreeShapeMXBean
+ *
+ * The current size and height of one tree.
+ */
+public interface AVLTreeShapeMXBean {
+	int getSize();
+
+	int getHeight();
+}
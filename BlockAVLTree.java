@@ -0,0 +1,535 @@
+import java.util.Arrays;
+
+/**
+ *
+ * BlockAVLTree
+ *
+ * An implementation of a AVL Tree with distinct int keys and String info, like AVLTree,
+ * whose nodes are blocks of up to BLOCK sorted keys instead of single keys.
+ * A search walks about log2(n / BLOCK) levels of the tree and then reads one block of keys that lie
+ * next to each other in memory, instead of one scattered node per level for all log2(n) levels.
+ *
+ * The blocks are balanced by AVLSlots, like the nodes of IntAVLTree, ordered by their smallest key low[b].
+ * Block b keeps its keys in keys[b * BLOCK, b * BLOCK + count[b]), their info at the same positions of values,
+ * and total[b] is the number of keys in the subtree of b, so size and split are O(log n).
+ * A full block is split into two halves on insert, and a block that falls below a quarter after a delete
+ * takes keys from a neighbour block, or is merged into it.
+ * split and join leave blocks smaller than that at the split point, until deletes there fill them again.
+ *
+ */
+public class BlockAVLTree {
+	static final int BLOCK = 64;
+	private static final int MIN_FILL = BLOCK / 4;
+	private static final int MERGE_FILL = BLOCK * 3 / 4; // neighbours with fewer keys together are merged
+	private static final int VIRTUAL = AVLSlots.VIRTUAL;
+
+	private Slots slots;
+	private int root;
+	private int min; // first block
+	private int max; // last block
+
+	public BlockAVLTree() {
+		this(new Slots(AVLSlots.INITIAL_CAPACITY), VIRTUAL);
+	}
+
+	//use in split, the new tree shares the slots of the split tree
+	private BlockAVLTree(Slots slots, int root) {
+		this.slots = slots;
+		this.root = root;
+		this.updateMinMax();
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return this.root == VIRTUAL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of keys in the tree.
+	 */
+	public int size() {
+		return this.slots.total[this.root];
+	}
+
+	/**
+	 * private int blockOf(int k)
+	 * receive key k,
+	 * returns the block where k is or would be inserted:
+	 * the last block whose smallest key is <= k, or the first block if there is none.
+	 * precondition: the tree is not empty
+	 */
+	private int blockOf(int k) {
+		int[] low = this.slots.low;
+		int[] left = this.slots.left;
+		int[] right = this.slots.right;
+		int node = this.root;
+		int block = this.min;
+		while (node != VIRTUAL) {
+			if (low[node] <= k) {
+				block = node;
+				node = right[node];
+			} else {
+				node = left[node];
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * private static int position(int[] keys, int from, int count, int k)
+	 *
+	 * returns the position of the first key >= k in keys[from, from + count), from + count if there is none.
+	 * a binary search whose only branch is the loop, the halving step compiles to a conditional move,
+	 * so it does not stall on mispredicted comparisons.
+	 * precondition: count > 0
+	 */
+	private static int position(int[] keys, int from, int count, int k) {
+		int i = from;
+		int n = count;
+		while (n > 1) {
+			int half = n >>> 1;
+			i = (keys[i + half] < k) ? i + half : i;
+			n -= half;
+		}
+		return (keys[i] < k) ? i + 1 : i;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		if (this.empty()) {
+			return null;
+		}
+		Slots s = this.slots;
+		int block = this.blockOf(k);
+		int from = block * BLOCK;
+		int end = from + s.count[block];
+		int i = position(s.keys, from, s.count[block], k);
+		return (i < end && s.keys[i] == k) ? s.values[i] : null;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns the number of rebalancing operations of the blocks, 0 unless a full block was split.
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		Slots s = this.slots;
+		if (this.empty()) {
+			this.root = s.allocateBlock();
+			s.insertAt(this.root, 0, k, i);
+			s.total[this.root] = 1;
+			this.min = this.root;
+			this.max = this.root;
+			return 0;
+		}
+		int block = this.blockOf(k);
+		int from = block * BLOCK;
+		int count = s.count[block];
+		int at = position(s.keys, from, count, k) - from;
+		if (at < count && s.keys[from + at] == k) {
+			return -1;
+		}
+		if (count < BLOCK) {
+			s.insertAt(block, at, k, i);
+			s.addTotal(block, 1);
+			return 0;
+		}
+		// the block is full, its upper half moves to a new block right after it
+		int next = s.allocateBlock();
+		s.moveTail(block, next, BLOCK / 2);
+		if (at <= BLOCK / 2) {
+			s.insertAt(block, at, k, i);
+		} else {
+			s.insertAt(next, at - BLOCK / 2, k, i);
+		}
+		s.total[next] = s.count[next];
+		if (s.right[block] == VIRTUAL) {
+			this.root = s.attach(block, next, true);
+		} else {
+			this.root = s.attach(s.leftmost(s.right[block]), next, false);
+		}
+		if (block == this.max) {
+			this.max = next;
+		}
+		return s.rebalanced;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations of the blocks, 0 unless a block was merged into its neighbour.
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		if (this.empty()) {
+			return -1;
+		}
+		Slots s = this.slots;
+		int block = this.blockOf(k);
+		int from = block * BLOCK;
+		int count = s.count[block];
+		int at = position(s.keys, from, count, k) - from;
+		if (at == count || s.keys[from + at] != k) {
+			return -1;
+		}
+		s.removeAt(block, at);
+		s.addTotal(block, -1);
+		if (s.count[block] >= MIN_FILL) {
+			return 0;
+		}
+		return this.refill(block);
+	}
+
+	/**
+	 * private int refill(int block)
+	 *
+	 * receive a block that fell below MIN_FILL keys,
+	 * merges it with a neighbour block if they fit in MERGE_FILL keys together, else moves keys between them
+	 * so they have half each. a block left alone is removed when it is empty.
+	 * returns the number of rebalancing operations.
+	 */
+	private int refill(int block) {
+		Slots s = this.slots;
+		int next = s.successor(block);
+		int prev = (next == VIRTUAL) ? s.predecessor(block) : VIRTUAL;
+		if (next == VIRTUAL && prev == VIRTUAL) {
+			if (s.count[block] == 0) {
+				this.root = s.remove(block);
+				this.updateMinMax();
+			}
+			return 0;
+		}
+		int smaller = (next == VIRTUAL) ? prev : block;
+		int bigger = (next == VIRTUAL) ? block : next;
+		int total = s.count[smaller] + s.count[bigger];
+		if (total > MERGE_FILL) {
+			s.balance(smaller, bigger);
+			s.refresh(smaller);
+			s.refresh(bigger);
+			return 0;
+		}
+		s.moveTail(bigger, smaller, 0);
+		s.refresh(smaller);
+		this.root = s.remove(bigger);
+		this.updateMinMax();
+		return s.rebalanced;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return this.empty() ? null : this.slots.values[this.min * BLOCK];
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return this.empty() ? null : this.slots.values[this.max * BLOCK + this.slots.count[this.max] - 1];
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[this.size()];
+		Slots s = this.slots;
+		int i = 0;
+		for (int block = this.min; block != VIRTUAL; block = s.successor(block)) {
+			System.arraycopy(s.keys, block * BLOCK, arr, i, s.count[block]);
+			i += s.count[block];
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[this.size()];
+		Slots s = this.slots;
+		int i = 0;
+		for (int block = this.min; block != VIRTUAL; block = s.successor(block)) {
+			System.arraycopy(s.values, block * BLOCK, arr, i, s.count[block]);
+			i += s.count[block];
+		}
+		return arr;
+	}
+
+	/**
+	 * public BlockAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2).
+	 * The block of x is cut in two new blocks, which are joined at the edges of the trees.
+	 * Both trees share this tree's slots, and this tree is left empty.
+	 * precondition: search(x) != null (i.e. you can also assume that the tree is not empty)
+	 */
+	public BlockAVLTree[] split(int x) {
+		Slots s = this.slots;
+		int block = this.blockOf(x);
+		int count = s.count[block];
+		int at = position(s.keys, block * BLOCK, count, x) - block * BLOCK;
+		int before = VIRTUAL;
+		int after = VIRTUAL;
+		if (at > 0) {
+			before = s.allocateBlock();
+			s.copyRange(block, 0, at, before);
+		}
+		if (at + 1 < count) {
+			after = s.allocateBlock();
+			s.copyRange(block, at + 1, count, after);
+		}
+		s.clear(block);
+		int[] halves = new int[2];
+		s.split(block, halves);
+		if (before != VIRTUAL) {
+			halves[0] = s.join(halves[0], before, VIRTUAL);
+		}
+		if (after != VIRTUAL) {
+			halves[1] = s.join(VIRTUAL, after, halves[1]);
+		}
+		this.root = VIRTUAL;
+		this.updateMinMax();
+		return new BlockAVLTree[] {new BlockAVLTree(s, halves[0]), new BlockAVLTree(s, halves[1])};
+	}
+
+	/**
+	 * public int join(int k, String i, BlockAVLTree t)
+	 *
+	 * joins t and a new item (k, i) with the tree, t is left empty. (k, i) gets a block of its own.
+	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1), in ranks of blocks.
+	 * If t keeps its blocks in other slots they are copied here first, in O(t.size())
+	 * and released there.
+	 * precondition: keys(t) < k < keys() or keys(t) > k > keys(). t/tree might be empty (rank = -1).
+	 */
+	public int join(int k, String i, BlockAVLTree t) {
+		int other = (t.slots == this.slots) ? t.root : this.copyOf(t);
+		Slots s = this.slots;
+		int complexity = Math.abs(s.rank[this.root] - s.rank[other]) + 1;
+		int x = s.allocateBlock();
+		s.insertAt(x, 0, k, i);
+		boolean thisSmaller = this.empty() ? (other == VIRTUAL || s.low[other] > k) : s.low[this.root] < k;
+		this.root = thisSmaller ? s.join(this.root, x, other) : s.join(other, x, this.root);
+		this.updateMinMax();
+		if (t.slots != this.slots) { // t was copied, its slots go back to the trees that share them
+			t.slots.releaseAll(t.root);
+		}
+		t.root = VIRTUAL;
+		t.updateMinMax();
+		return complexity;
+	}
+
+	// copies the blocks of t into new slots here, as a balanced subtree, and returns its root
+	private int copyOf(BlockAVLTree t) {
+		Slots s = this.slots;
+		int blocks = 0;
+		for (int block = t.min; block != VIRTUAL; block = t.slots.successor(block)) {
+			blocks++;
+		}
+		int[] order = new int[blocks];
+		int i = 0;
+		for (int block = t.min; block != VIRTUAL; block = t.slots.successor(block)) {
+			int copy = s.allocateBlock();
+			System.arraycopy(t.slots.keys, block * BLOCK, s.keys, copy * BLOCK, t.slots.count[block]);
+			System.arraycopy(t.slots.values, block * BLOCK, s.values, copy * BLOCK, t.slots.count[block]);
+			s.count[copy] = t.slots.count[block];
+			s.low[copy] = t.slots.low[block];
+			order[i++] = copy;
+		}
+		return s.build(order, 0, order.length);
+	}
+
+	// sets min,max to the edge blocks of the tree
+	private void updateMinMax() {
+		this.min = this.slots.leftmost(this.root);
+		this.max = this.slots.rightmost(this.root);
+	}
+
+	/**
+	 * private static class Slots
+	 *
+	 * AVLSlots whose key is a block: low[b] is its smallest key, count[b] its number of keys,
+	 * total[b] the number of keys in its subtree, and its keys and info are
+	 * keys[b * BLOCK, b * BLOCK + count[b]) and values at the same positions.
+	 */
+	private static final class Slots extends AVLSlots {
+		private int[] low;
+		private int[] count;
+		private int[] total;
+		private int[] keys;
+		private String[] values;
+
+		private Slots(int capacity) {
+			super(capacity);
+			this.low = new int[capacity];
+			this.count = new int[capacity];
+			this.total = new int[capacity];
+			this.keys = new int[capacity * BLOCK];
+			this.values = new String[capacity * BLOCK];
+		}
+
+		// returns a slot holding a new empty block
+		private int allocateBlock() {
+			int block = this.allocate(null);
+			this.count[block] = 0;
+			this.total[block] = 0;
+			return block;
+		}
+
+		@Override
+		void update(int node) {
+			super.update(node);
+			this.total[node] = this.total[this.left[node]] + this.total[this.right[node]] + this.count[node];
+		}
+
+		@Override
+		void growKeys(int capacity) {
+			if (capacity > Integer.MAX_VALUE / BLOCK) {
+				throw new IllegalStateException("BlockAVLTree can not hold more than " + (Integer.MAX_VALUE / BLOCK) + " blocks");
+			}
+			this.low = Arrays.copyOf(this.low, capacity);
+			this.count = Arrays.copyOf(this.count, capacity);
+			this.total = Arrays.copyOf(this.total, capacity);
+			this.keys = Arrays.copyOf(this.keys, capacity * BLOCK);
+			this.values = Arrays.copyOf(this.values, capacity * BLOCK);
+		}
+
+		// drops the info of the block too
+		@Override
+		void release(int node) {
+			this.clear(node);
+			super.release(node);
+		}
+
+		// moves the whole block from into to, from is released right after
+		@Override
+		void copyKey(int from, int to) {
+			this.clear(to);
+			this.copyRange(from, 0, this.count[from], to);
+			this.clear(from);
+		}
+
+		// copies the keys and info at positions [start, end) of block from to the end of block to
+		private void copyRange(int from, int start, int end, int to) {
+			int at = to * BLOCK + this.count[to];
+			System.arraycopy(this.keys, from * BLOCK + start, this.keys, at, end - start);
+			System.arraycopy(this.values, from * BLOCK + start, this.values, at, end - start);
+			this.count[to] += end - start;
+			this.low[to] = this.keys[to * BLOCK];
+		}
+
+		// empties block, dropping its info
+		private void clear(int block) {
+			Arrays.fill(this.values, block * BLOCK, block * BLOCK + this.count[block], null);
+			this.count[block] = 0;
+		}
+
+		// moves the keys of from after its first keep ones to the end of block to
+		private void moveTail(int from, int to, int keep) {
+			int start = from * BLOCK + keep;
+			int end = from * BLOCK + this.count[from];
+			this.copyRange(from, keep, this.count[from], to);
+			Arrays.fill(this.values, start, end, null);
+			this.count[from] = keep;
+		}
+
+		// moves keys between the neighbour blocks smaller and bigger so each has half of them
+		private void balance(int smaller, int bigger) {
+			int half = (this.count[smaller] + this.count[bigger]) >>> 1;
+			int move = this.count[smaller] - half;
+			if (move > 0) { // the last keys of smaller go to the front of bigger
+				int from = smaller * BLOCK + half;
+				int to = bigger * BLOCK;
+				System.arraycopy(this.keys, to, this.keys, to + move, this.count[bigger]);
+				System.arraycopy(this.values, to, this.values, to + move, this.count[bigger]);
+				System.arraycopy(this.keys, from, this.keys, to, move);
+				System.arraycopy(this.values, from, this.values, to, move);
+				Arrays.fill(this.values, from, from + move, null);
+			} else if (move < 0) { // the first keys of bigger go to the end of smaller
+				move = -move;
+				int from = bigger * BLOCK;
+				System.arraycopy(this.keys, from, this.keys, smaller * BLOCK + this.count[smaller], move);
+				System.arraycopy(this.values, from, this.values, smaller * BLOCK + this.count[smaller], move);
+				System.arraycopy(this.keys, from + move, this.keys, from, this.count[bigger] - move);
+				System.arraycopy(this.values, from + move, this.values, from, this.count[bigger] - move);
+				Arrays.fill(this.values, from + this.count[bigger] - move, from + this.count[bigger], null);
+				move = -move;
+			}
+			this.count[smaller] -= move;
+			this.count[bigger] += move;
+			this.low[smaller] = this.keys[smaller * BLOCK];
+			this.low[bigger] = this.keys[bigger * BLOCK];
+		}
+
+		// puts (k, i) at position at of block, which has room for it
+		private void insertAt(int block, int at, int k, String i) {
+			int from = block * BLOCK + at;
+			int tail = this.count[block] - at;
+			System.arraycopy(this.keys, from, this.keys, from + 1, tail);
+			System.arraycopy(this.values, from, this.values, from + 1, tail);
+			this.keys[from] = k;
+			this.values[from] = i;
+			this.count[block]++;
+			if (at == 0) {
+				this.low[block] = k;
+			}
+		}
+
+		// removes the key at position at of block
+		private void removeAt(int block, int at) {
+			int from = block * BLOCK + at;
+			int tail = this.count[block] - at - 1;
+			System.arraycopy(this.keys, from + 1, this.keys, from, tail);
+			System.arraycopy(this.values, from + 1, this.values, from, tail);
+			this.count[block]--;
+			this.values[block * BLOCK + this.count[block]] = null;
+			if (at == 0 && this.count[block] > 0) {
+				this.low[block] = this.keys[block * BLOCK];
+			}
+		}
+
+		// adds delta to total from block up to the root, after delta keys were put into block
+		private void addTotal(int block, int delta) {
+			for (int node = block; node != VIRTUAL; node = this.parent[node]) {
+				this.total[node] += delta;
+			}
+		}
+
+		// sets total from block up to the root, after count[block] changed
+		private void refresh(int block) {
+			for (int node = block; node != VIRTUAL; node = this.parent[node]) {
+				this.total[node] = this.total[this.left[node]] + this.total[this.right[node]] + this.count[node];
+			}
+		}
+	}
+}
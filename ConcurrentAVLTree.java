@@ -0,0 +1,345 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * ConcurrentAVLTree
+ *
+ * A thread safe AVLTree.
+ * Writers are serialized by a StampedLock, and readers first try an optimistic read:
+ * they walk the tree without locking and validate the stamp afterwards.
+ * If a writer changed the tree meanwhile (or the walk saw a half done rotation)
+ * the read is done again under the read lock.
+ *
+ */
+public class ConcurrentAVLTree {
+	// walks are cut after this many steps, a longer walk saw a tree in the middle of a change
+	// (an AVL tree of 2^31 keys is less than 46 high), and its stamp will not validate
+	private static final int MAX_DEPTH = 64;
+
+	private final AVLTree tree = new AVLTree();
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i, as AVLTree.insert.
+	 */
+	public int insert(int k, String i) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.insert(k, i);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes the item with key k, as AVLTree.delete.
+	 */
+	public int delete(int k) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.delete(k);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int insertAll(int[] sortedKeys, String[] values, boolean[] inserted)
+	 *
+	 * inserts a sorted batch, as AVLTree.insertAll, holding the write lock once.
+	 */
+	public int insertAll(int[] sortedKeys, String[] values, boolean[] inserted) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.insertAll(sortedKeys, values, inserted);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int deleteAll(int[] sortedKeys, boolean[] deleted)
+	 *
+	 * deletes a sorted batch, as AVLTree.deleteAll, holding the write lock once.
+	 */
+	public int deleteAll(int[] sortedKeys, boolean[] deleted) {
+		long stamp = this.lock.writeLock();
+		try {
+			return this.tree.deleteAll(sortedKeys, deleted);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				String value = this.searchWalk(k);
+				if (this.lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.search(k);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	// walks from the root to key k, returns its info or null, at most MAX_DEPTH steps
+	private String searchWalk(int k) {
+		AVLTree.IAVLNode node = this.tree.getRoot();
+		for (int depth = 0; node != null && node.isRealNode() && depth < MAX_DEPTH; depth++) {
+			int key = node.getKey();
+			if (key == k) {
+				return node.getValue();
+			}
+			node = (key > k) ? node.getLeft() : node.getRight();
+		}
+		return null;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				String value = this.tree.min();
+				if (this.lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.min();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				String value = this.tree.max();
+				if (this.lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.max();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			AVLTree.IAVLNode root = this.tree.getRoot();
+			int size = (root == null) ? 0 : root.getSize();
+			if (this.lock.validate(stamp)) {
+				return size;
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.size();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.size() == 0;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the info of the item with the i-th smallest key (starting from 0),
+	 * or null if i < 0 or i >= size().
+	 */
+	public String select(int i) {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				String value = this.selectWalk(i);
+				if (this.lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.select(i);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	// walks down by subtree sizes to the i-th smallest key, at most MAX_DEPTH steps
+	private String selectWalk(int i) {
+		AVLTree.IAVLNode node = this.tree.getRoot();
+		if (node == null || i < 0 || i >= node.getSize()) {
+			return null;
+		}
+		for (int depth = 0; node.isRealNode() && depth < MAX_DEPTH; depth++) {
+			int leftSize = node.getLeft().getSize();
+			if (i == leftSize) {
+				return node.getValue();
+			}
+			if (i < leftSize) {
+				node = node.getLeft();
+			} else {
+				i -= leftSize + 1;
+				node = node.getRight();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree that are smaller than k.
+	 */
+	public int rank(int k) {
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				int rank = this.rankWalk(k);
+				if (this.lock.validate(stamp)) {
+					return rank;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.rank(k);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	// counts the keys smaller than k on the walk down, at most MAX_DEPTH steps
+	private int rankWalk(int k) {
+		AVLTree.IAVLNode node = this.tree.getRoot();
+		int count = 0;
+		for (int depth = 0; node != null && node.isRealNode() && depth < MAX_DEPTH; depth++) {
+			if (node.getKey() < k) {
+				count += node.getLeft().getSize() + 1;
+				node = node.getRight();
+			} else {
+				node = node.getLeft();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 *
+	 * Returns the number of keys in the tree with lo <= key <= hi.
+	 */
+	public int countInRange(int lo, int hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				int atLeastLo = this.rankWalk(lo);
+				AVLTree.IAVLNode root = this.tree.getRoot();
+				int atMostHi = (hi == Integer.MAX_VALUE) ? ((root == null) ? 0 : root.getSize()) : this.rankWalk(hi + 1);
+				if (this.lock.validate(stamp)) {
+					return atMostHi - atLeastLo;
+				}
+			} catch (RuntimeException e) {
+				// saw a half changed tree, read again under the lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.tree.countInRange(lo, hi);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree, read under the read lock.
+	 */
+	public int[] keysToArray() {
+		long stamp = this.lock.readLock();
+		try {
+			return this.tree.keysToArray();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their respective keys,
+	 * read under the read lock.
+	 */
+	public String[] infoToArray() {
+		long stamp = this.lock.readLock();
+		try {
+			return this.tree.infoToArray();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+}
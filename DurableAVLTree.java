@@ -0,0 +1,531 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * DurableAVLTree
+ *
+ * An AVLTree that keeps its changes between snapshots in a write-ahead log.
+ * insert, delete, split and join are applied to the tree and appended to the log,
+ * and open loads the last snapshot and replays the log written after it.
+ *
+ * The log is a header (int magic "AVLW", int version, int checksum of the snapshot it continues, 0 for none)
+ * followed by records: int length n, n bytes (a type and its fields), int CRC32C of the n bytes.
+ * A record cut by a crash does not match its checksum, and open truncates the log before it.
+ *
+ * Group commit: with a commit interval of 0 every change is forced to the disk before it returns.
+ * With an interval of t microseconds a change returns once it is in the log buffer,
+ * and a background thread writes and forces the buffer every t microseconds,
+ * so the changes of that interval share one fsync and a crash loses at most the last t microseconds.
+ * sync() forces everything logged so far.
+ *
+ */
+public class DurableAVLTree implements AutoCloseable {
+	private static final int MAGIC = 0x41564C57;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+	private static final byte SPLIT = 3;
+	private static final byte JOIN = 4;
+
+	private final Path snapshot;
+	private final long commitMicros;
+	private final Object flushLock = new Object(); // taken before this, serializes writes to the log file
+	private final CRC32C crc = new CRC32C();
+	private final ScheduledExecutorService flusher;
+	private AVLTree tree;
+	private FileChannel channel; // null once closed
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE); // records not written yet, under this
+	private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE); // records being written, under flushLock
+	private IOException failure; // of the background flush
+
+	private DurableAVLTree(Path snapshot, FileChannel channel, AVLTree tree, long commitMicros) {
+		this.snapshot = snapshot;
+		this.channel = channel;
+		this.tree = tree;
+		this.commitMicros = commitMicros;
+		if (commitMicros == 0) {
+			this.flusher = null;
+		} else {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "DurableAVLTree flusher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.flusher.scheduleWithFixedDelay(this::backgroundFlush, commitMicros, commitMicros, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	/**
+	 * public static DurableAVLTree open(Path snapshot, Path log, long commitMicros)
+	 *
+	 * loads the snapshot (if it exists, else starts from an empty tree) and replays the log after it.
+	 * a log that continues an older snapshot was written before the snapshot was replaced,
+	 * its changes are all in the snapshot and it is started over.
+	 * commitMicros is the group commit interval, 0 forces every change before it returns.
+	 * throws IOException if the log continues a snapshot that is missing, or is not a log.
+	 */
+	public static DurableAVLTree open(Path snapshot, Path log, long commitMicros) throws IOException {
+		if (commitMicros < 0) {
+			throw new IllegalArgumentException("commitMicros must not be negative");
+		}
+		boolean hasSnapshot = Files.exists(snapshot);
+		AVLTree tree = hasSnapshot ? AVLTree.load(snapshot) : new AVLTree();
+		int base = hasSnapshot ? AVLSnapshot.checksumOf(snapshot) : 0;
+		FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		DurableAVLTree durable = new DurableAVLTree(snapshot, channel, tree, commitMicros);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			for (int read = 0; header.hasRemaining() && read >= 0; ) {
+				read = channel.read(header, header.position());
+			}
+			header.flip();
+			if (header.remaining() < HEADER_SIZE) { // new log, or a crash while it was started over
+				durable.startLog(base);
+				AVLSnapshot.forceDirectory(log);
+			} else if (header.getInt() != MAGIC) {
+				throw new IOException(log + " is not a log");
+			} else if (header.getInt() != VERSION) {
+				throw new IOException(log + " has log version " + header.getInt(4) + ", expected " + VERSION);
+			} else if (header.getInt() == base) {
+				long end = durable.replay();
+				channel.truncate(end);
+				channel.position(end);
+			} else if (hasSnapshot) {
+				durable.startLog(base);
+			} else {
+				throw new IOException(log + " continues a snapshot, but " + snapshot + " is missing");
+			}
+		} catch (IOException | RuntimeException e) {
+			durable.close();
+			throw e;
+		}
+		return durable;
+	}
+
+	/**
+	 * private long replay()
+	 *
+	 * applies the records of the log to the tree, until the end of the log
+	 * or a record that was cut or damaged. returns the log position after the last good record.
+	 */
+	private long replay() throws IOException {
+		long size = this.channel.size();
+		long position = HEADER_SIZE;
+		this.channel.position(position);
+		// not closed, that would close the channel
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel), BUFFER_SIZE));
+		byte[] record = new byte[64];
+		while (size - position >= 8) {
+			int length = in.readInt();
+			if (length < 1 || length > size - position - 8) {
+				break;
+			}
+			if (length > record.length) {
+				record = new byte[Math.max(length, record.length * 2)];
+			}
+			in.readFully(record, 0, length);
+			int checksum = in.readInt();
+			this.crc.reset();
+			this.crc.update(record, 0, length);
+			if ((int) this.crc.getValue() != checksum) {
+				break;
+			}
+			this.apply(ByteBuffer.wrap(record, 0, length));
+			position += length + 8;
+		}
+		return position;
+	}
+
+	// applies one record of the log to the tree
+	private void apply(ByteBuffer record) throws IOException {
+		byte type = record.get();
+		switch (type) {
+		case INSERT:
+			this.tree.insert(record.getInt(), getValue(record));
+			break;
+		case DELETE:
+			this.tree.delete(record.getInt());
+			break;
+		case SPLIT:
+			this.tree.split(record.getInt());
+			this.tree = new AVLTree();
+			break;
+		case JOIN:
+			int k = record.getInt();
+			String i = getValue(record);
+			int n = record.getInt();
+			int[] keys = new int[n];
+			String[] values = new String[n];
+			for (int j = 0; j < n; j++) {
+				keys[j] = record.getInt();
+			}
+			for (int j = 0; j < n; j++) {
+				values[j] = getValue(record);
+			}
+			this.tree.join(this.tree.new AVLNode(k, i), AVLTree.fromSorted(keys, values));
+			break;
+		default:
+			throw new IOException("unknown log record type " + type);
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i, as AVLTree.insert, and logs it.
+	 */
+	public int insert(int k, String i) throws IOException {
+		int result;
+		synchronized (this) {
+			this.checkOpen();
+			result = this.tree.insert(k, i);
+			if (result != -1) {
+				int start = this.begin(INSERT);
+				this.putInt(k);
+				this.putValue(i);
+				this.end(start);
+			}
+		}
+		this.committed();
+		return result;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes the item with key k, as AVLTree.delete, and logs it.
+	 */
+	public int delete(int k) throws IOException {
+		int result;
+		synchronized (this) {
+			this.checkOpen();
+			result = this.tree.delete(k);
+			if (result != -1) {
+				int start = this.begin(DELETE);
+				this.putInt(k);
+				this.end(start);
+			}
+		}
+		this.committed();
+		return result;
+	}
+
+	/**
+	 * public AVLTree[] split(int x)
+	 *
+	 * splits the tree as AVLTree.split, and logs it.
+	 * Returns the halves [t1, t2] as plain trees, keys(t1) < x < keys(t2), and this tree is left empty.
+	 * precondition: x is in the tree, else IllegalArgumentException is thrown
+	 */
+	public AVLTree[] split(int x) throws IOException {
+		AVLTree[] halves;
+		synchronized (this) {
+			this.checkOpen();
+			if (this.tree.countInRange(x, x) == 0) {
+				throw new IllegalArgumentException("key " + x + " is not in the tree");
+			}
+			halves = this.tree.split(x);
+			this.tree = new AVLTree();
+			int start = this.begin(SPLIT);
+			this.putInt(x);
+			this.end(start);
+		}
+		this.committed();
+		return halves;
+	}
+
+	/**
+	 * public int join(int k, String i, AVLTree t)
+	 *
+	 * joins t and a new item (k, i) with the tree, as AVLTree.join, and logs it with all the items of t.
+	 * t must not be used afterwards. Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 * precondition: keys(t) < k < keys() or keys(t) > k > keys(), else IllegalArgumentException is thrown
+	 */
+	public int join(int k, String i, AVLTree t) throws IOException {
+		int result;
+		synchronized (this) {
+			this.checkOpen();
+			boolean below = (this.tree.empty() || this.tree.selectKey(this.tree.size() - 1) < k) && (t.empty() || t.selectKey(0) > k);
+			boolean above = (this.tree.empty() || this.tree.selectKey(0) > k) && (t.empty() || t.selectKey(t.size() - 1) < k);
+			if (!below && !above) {
+				throw new IllegalArgumentException("key " + k + " does not separate the trees");
+			}
+			int[] keys = t.keysToArray();
+			String[] values = t.infoToArray();
+			int start = this.begin(JOIN);
+			this.putInt(k);
+			this.putValue(i);
+			this.putInt(keys.length);
+			for (int key : keys) {
+				this.putInt(key);
+			}
+			for (String value : values) {
+				this.putValue(value);
+			}
+			this.end(start);
+			result = this.tree.join(this.tree.new AVLNode(k, i), t);
+		}
+		this.committed();
+		return result;
+	}
+
+	/**
+	 * public void checkpoint()
+	 *
+	 * writes the tree to the snapshot and starts the log over after it.
+	 * the log is truncated only once the snapshot and its directory entry are on the disk,
+	 * so a crash in between replays the old log or finds the new snapshot.
+	 * changes wait until it is done.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (this.flushLock) {
+			synchronized (this) {
+				this.checkOpen();
+				this.tree.writeSnapshot(this.snapshot);
+				this.pending.clear(); // the snapshot has these changes
+				this.startLog(AVLSnapshot.checksumOf(this.snapshot));
+			}
+		}
+	}
+
+	/**
+	 * public void sync()
+	 *
+	 * writes the changes logged so far and forces them to the disk.
+	 * callers that sync at the same time share one fsync.
+	 */
+	public void sync() throws IOException {
+		this.flush();
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * stops the background flush, syncs and closes the log.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.flusher != null) {
+			this.flusher.shutdown();
+			try {
+				this.flusher.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this.flushLock) {
+			try {
+				if (this.channel != null && this.failure == null) {
+					this.flush();
+				}
+			} finally {
+				synchronized (this) {
+					if (this.channel != null) {
+						this.channel.close();
+						this.channel = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public synchronized String search(int k) {
+		return this.tree.search(k);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public synchronized String min() {
+		return this.tree.min();
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public synchronized String max() {
+		return this.tree.max();
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public synchronized int size() {
+		return this.tree.size();
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public synchronized boolean empty() {
+		return this.tree.empty();
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree.
+	 */
+	public synchronized int[] keysToArray() {
+		return this.tree.keysToArray();
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree, sorted by their respective keys.
+	 */
+	public synchronized String[] infoToArray() {
+		return this.tree.infoToArray();
+	}
+
+	// forces the change just logged when there is no group commit
+	private void committed() throws IOException {
+		if (this.commitMicros == 0) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * private void flush()
+	 *
+	 * swaps the pending records with the empty write buffer, so changes go on
+	 * while they are written and forced to the disk.
+	 */
+	private void flush() throws IOException {
+		synchronized (this.flushLock) {
+			synchronized (this) {
+				this.checkOpen();
+				if (this.pending.position() == 0) {
+					return;
+				}
+				ByteBuffer records = this.pending;
+				this.pending = this.writing;
+				this.writing = records;
+			}
+			this.writing.flip();
+			while (this.writing.hasRemaining()) {
+				this.channel.write(this.writing);
+			}
+			this.writing.clear();
+			this.channel.force(false);
+		}
+	}
+
+	private void backgroundFlush() {
+		try {
+			this.flush();
+		} catch (IOException e) {
+			synchronized (this) {
+				this.failure = e;
+			}
+			this.flusher.shutdown();
+		} catch (IllegalStateException e) {
+			// closed meanwhile
+		}
+	}
+
+	// truncates the log to a new header, continuing the snapshot with the given checksum
+	private void startLog(int base) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(base).flip();
+		this.channel.truncate(0);
+		while (header.hasRemaining()) {
+			this.channel.write(header, header.position());
+		}
+		this.channel.position(HEADER_SIZE);
+		this.channel.force(true);
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.channel == null) {
+			throw new IllegalStateException("the tree is closed");
+		}
+		if (this.failure != null) {
+			throw new IOException("the log could not be written", this.failure);
+		}
+	}
+
+	// starts a record of the given type, returns its position in pending
+	private int begin(byte type) {
+		this.ensure(5);
+		int start = this.pending.position();
+		this.pending.putInt(0).put(type);
+		return start;
+	}
+
+	// sets the length of the record that starts at start, and appends its checksum
+	private void end(int start) {
+		int length = this.pending.position() - start - 4;
+		this.pending.putInt(start, length);
+		this.crc.reset();
+		this.crc.update(this.pending.array(), start + 4, length);
+		this.putInt((int) this.crc.getValue());
+	}
+
+	private void putInt(int i) {
+		this.ensure(4);
+		this.pending.putInt(i);
+	}
+
+	private void putValue(String i) {
+		if (i == null) {
+			this.putInt(-1);
+			return;
+		}
+		byte[] bytes = i.getBytes(StandardCharsets.UTF_8);
+		this.ensure(4 + bytes.length);
+		this.pending.putInt(bytes.length).put(bytes);
+	}
+
+	private static String getValue(ByteBuffer record) {
+		int length = record.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return value;
+	}
+
+	// makes room for n more bytes in pending
+	private void ensure(int n) {
+		if (this.pending.remaining() < n) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + n));
+			this.pending.flip();
+			larger.put(this.pending);
+			this.pending = larger;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ *
+ * HotKeyCache
+ *
+ * A bounded map from int keys to their info, in front of AVLTree.search.
+ * Entry e is key[e], value[e] and referenced[e]. The entries are found through table,
+ * an open-addressed hash table with linear probing that holds e + 1 (0 is an empty cell),
+ * at most half full so probes stay short. Removed cells are filled by shifting the rest of their run back,
+ * so there are no tombstones.
+ *
+ * A key is cached when it is searched for the second time while the doorkeeper remembers it:
+ * a bit set of 8 bits per entry that marks the keys searched once, cleared after every 4 * capacity such keys.
+ * Keys searched only once, most of a long tail, then take no entry (the doorkeeper of TinyLFU).
+ * When all entries are used, a new key takes the place of one chosen by CLOCK:
+ * the hand goes around the entries, clearing referenced, and stops at the first one
+ * that was not read since the hand last passed it.
+ * The tree removes keys here when they leave it, so a cached info is always the tree's.
+ * Not thread safe: get and missed write (referenced, the counters, the doorkeeper) like put and remove do.
+ *
+ */
+final class HotKeyCache {
+	private final int[] key;
+	private final String[] value;
+	private final boolean[] referenced;
+	private final int[] table;
+	private final int mask;
+	private final int[] free; // stack of removed entries, reused before evicting
+	private int freeCount;
+	private int used; // entries [0, used) were given out
+	private int hand;
+	private final long[] seen; // the doorkeeper
+	private final int seenMask;
+	private int seenCount;
+	long hits;
+	long misses;
+
+	HotKeyCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("cache capacity must be positive: " + capacity);
+		}
+		this.key = new int[capacity];
+		this.value = new String[capacity];
+		this.referenced = new boolean[capacity];
+		this.free = new int[capacity];
+		int cells = Integer.highestOneBit(capacity) << 2; // between 2 and 4 cells per entry
+		this.table = new int[cells];
+		this.mask = cells - 1;
+		this.seen = new long[Math.max(1, cells >>> 5)]; // 8 bits per entry, 2 bits per cell
+		this.seenMask = (this.seen.length << 6) - 1;
+	}
+
+	int capacity() {
+		return this.key.length;
+	}
+
+	// spreads the keys over the table, nearby keys land far apart (Fibonacci hashing)
+	private int cell(int k) {
+		int h = k * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & this.mask;
+	}
+
+	// returns the entry of k, or -1
+	private int entry(int k) {
+		for (int c = this.cell(k); this.table[c] != 0; c = (c + 1) & this.mask) {
+			int e = this.table[c] - 1;
+			if (this.key[e] == k) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	// returns the cached info of k, or null and counts a miss
+	String get(int k) {
+		int e = this.entry(k);
+		if (e < 0) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		this.referenced[e] = true;
+		return this.value[e];
+	}
+
+	// tells a search of k, which get missed, found info i in the tree. k is cached the second time
+	void missed(int k, String i) {
+		int h = k * 0x85EBCA6B;
+		int bit = (h ^ (h >>> 15)) & this.seenMask;
+		long mark = 1L << bit;
+		if ((this.seen[bit >>> 6] & mark) != 0) {
+			this.put(k, i);
+			return;
+		}
+		this.seen[bit >>> 6] |= mark;
+		if (++this.seenCount == 4 * this.key.length) {
+			Arrays.fill(this.seen, 0);
+			this.seenCount = 0;
+		}
+	}
+
+	// caches (k, i), k is not cached
+	void put(int k, String i) {
+		int e;
+		if (this.freeCount > 0) {
+			e = this.free[--this.freeCount];
+		} else if (this.used < this.key.length) {
+			e = this.used++;
+		} else {
+			e = this.evict();
+		}
+		this.key[e] = k;
+		this.value[e] = i;
+		this.referenced[e] = false;
+		int c = this.cell(k);
+		while (this.table[c] != 0) {
+			c = (c + 1) & this.mask;
+		}
+		this.table[c] = e + 1;
+	}
+
+	// takes the entry the CLOCK hand stops at out of the table and returns it
+	private int evict() {
+		while (this.referenced[this.hand]) {
+			this.referenced[this.hand] = false;
+			this.hand = (this.hand + 1) % this.key.length;
+		}
+		int e = this.hand;
+		this.hand = (this.hand + 1) % this.key.length;
+		this.unlink(e);
+		return e;
+	}
+
+	// drops k if it is cached
+	void remove(int k) {
+		int e = this.entry(k);
+		if (e >= 0) {
+			this.unlink(e);
+			this.value[e] = null;
+			this.free[this.freeCount++] = e;
+		}
+	}
+
+	// drops the cached keys that fail keep
+	void retain(IntPredicate keep) {
+		for (int e = 0; e < this.used; e++) {
+			if (this.value[e] != null && !keep.test(this.key[e])) {
+				this.remove(this.key[e]);
+			}
+		}
+	}
+
+	// calls action with every cached key and its info
+	void forEach(AVLTree.IntObjConsumer<String> action) {
+		for (int e = 0; e < this.used; e++) {
+			if (this.value[e] != null) {
+				action.accept(this.key[e], this.value[e]);
+			}
+		}
+	}
+
+	// drops all keys, the counters are kept
+	void clear() {
+		Arrays.fill(this.table, 0);
+		Arrays.fill(this.value, null);
+		Arrays.fill(this.referenced, false);
+		this.used = 0;
+		this.freeCount = 0;
+		this.hand = 0;
+	}
+
+	/**
+	 * private void unlink(int e)
+	 *
+	 * removes the table cell of entry e. the cells after it in its run are moved back
+	 * when the cell they hash to is not between the hole and them, so every key stays reachable from its cell.
+	 */
+	private void unlink(int e) {
+		int hole = this.cell(this.key[e]);
+		while (this.table[hole] != e + 1) {
+			hole = (hole + 1) & this.mask;
+		}
+		for (int c = (hole + 1) & this.mask; this.table[c] != 0; c = (c + 1) & this.mask) {
+			int home = this.cell(this.key[this.table[c] - 1]);
+			// moves back unless home is cyclically in (hole, c]
+			if (((c - home) & this.mask) >= ((c - hole) & this.mask)) {
+				this.table[hole] = this.table[c];
+				hole = c;
+			}
+		}
+		this.table[hole] = 0;
+	}
+}
@@ -0,0 +1,297 @@
+import java.util.Arrays;
+
+/**
+ *
+ * LongAVLTree
+ *
+ * An implementation of a AVL Tree with
+ * distinct long keys (timestamps, 64 bit ids) and values of type V, that keeps its nodes
+ * in parallel primitive arrays instead of AVLNode objects, so keys are never boxed.
+ *
+ * The nodes are kept by AVLSlots, which does the balancing and is shared with IntAVLTree,
+ * and key[i] is the key of node i.
+ *
+ */
+public class LongAVLTree<V> {
+	private static final int VIRTUAL = AVLSlots.VIRTUAL;
+
+	private Slots slots;
+	private int root;
+	private int min;
+	private int max;
+
+	public LongAVLTree() {
+		this(new Slots(AVLSlots.INITIAL_CAPACITY), VIRTUAL);
+	}
+
+	//use in split, the new tree shares the slots of the split tree
+	private LongAVLTree(Slots slots, int root) {
+		this.slots = slots;
+		this.root = root;
+		this.updateMinMax();
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return this.root == VIRTUAL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return this.slots.size[this.root];
+	}
+
+	/**
+	 * private int searchSlot(long k)
+	 * receive key k,
+	 * returns the slot of key k if it exists in the tree,
+	 * otherwise, returns VIRTUAL
+	 */
+	private int searchSlot(long k) {
+		long[] key = this.slots.key;
+		int[] left = this.slots.left;
+		int[] right = this.slots.right;
+		int node = this.root;
+		while (node != VIRTUAL && key[node] != k) {
+			node = (key[node] > k) ? left[node] : right[node];
+		}
+		return node;
+	}
+
+	/**
+	 * public V search(long k)
+	 *
+	 * returns the value of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public V search(long k) {
+		int node = this.searchSlot(k);
+		return (node == VIRTUAL) ? null : this.value(node);
+	}
+
+	/**
+	 * public int insert(long k, V i)
+	 *
+	 * inserts an item with key k and value i to the AVL tree.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	 * promotion/rotation - counted as one rebalnce operation, double-rotation is counted as 2.
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(long k, V i) {
+		Slots s = this.slots;
+		if (this.empty()) {
+			this.root = s.allocate(k, i);
+			this.min = this.root;
+			this.max = this.root;
+			return 0;
+		}
+		int parent = this.root;
+		while (true) {
+			int next = (s.key[parent] > k) ? s.left[parent] : s.right[parent];
+			if (s.key[parent] == k) {
+				return -1;
+			}
+			if (next == VIRTUAL) {
+				break;
+			}
+			parent = next;
+		}
+		int node = s.allocate(k, i);
+		if (k < s.key[this.min]) {
+			this.min = node;
+		}
+		if (k > s.key[this.max]) {
+			this.max = node;
+		}
+		this.root = s.attach(parent, node, s.key[parent] < k);
+		return s.rebalanced;
+	}
+
+	/**
+	 * public int delete(long k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+	 * demotion/rotation - counted as one rebalnce operation, double-rotation is counted as 2.
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(long k) {
+		int node = this.searchSlot(k);
+		if (node == VIRTUAL) {
+			return -1;
+		}
+		this.root = this.slots.remove(node);
+		this.updateMinMax();
+		return this.slots.rebalanced;
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the value of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V min() {
+		return this.empty() ? null : this.value(this.min);
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the value of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public V max() {
+		return this.empty() ? null : this.value(this.max);
+	}
+
+	/**
+	 * public long[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public long[] keysToArray() {
+		long[] arr = new long[this.size()];
+		Slots s = this.slots;
+		int i = 0;
+		for (int node = this.min; node != VIRTUAL; node = s.successor(node)) {
+			arr[i++] = s.key[node];
+		}
+		return arr;
+	}
+
+	/**
+	 * public Object[] infoToArray()
+	 *
+	 * Returns an array which contains all values in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public Object[] infoToArray() {
+		return this.infoToArray(new Object[this.size()]);
+	}
+
+	/**
+	 * public <T> T[] infoToArray(T[] arr)
+	 *
+	 * Returns the values in the tree sorted by their respective keys, like Collection.toArray(T[]):
+	 * in arr if it is large enough, else in a new array of the same runtime type.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T[] infoToArray(T[] arr) {
+		if (arr.length < this.size()) {
+			arr = Arrays.copyOf(arr, this.size());
+		}
+		Slots s = this.slots;
+		int i = 0;
+		for (int node = this.min; node != VIRTUAL; node = s.successor(node)) {
+			arr[i++] = (T) s.value[node];
+		}
+		return arr;
+	}
+
+	/**
+	 * public LongAVLTree<V>[] split(long x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * Both trees share this tree's slots, and this tree is left empty.
+	 * precondition: search(x) != null (i.e. you can also assume that the tree is not empty)
+	 */
+	@SuppressWarnings("unchecked")
+	public LongAVLTree<V>[] split(long x) {
+		int[] halves = new int[2];
+		this.slots.split(this.searchSlot(x), halves);
+		this.root = VIRTUAL;
+		this.updateMinMax();
+		LongAVLTree<V>[] trees = (LongAVLTree<V>[]) new LongAVLTree<?>[] {new LongAVLTree<V>(this.slots, halves[0]), new LongAVLTree<V>(this.slots, halves[1])};
+		return trees;
+	}
+
+	/**
+	 * public int join(long k, V i, LongAVLTree<V> t)
+	 *
+	 * joins t and a new item (k, i) with the tree, t is left empty.
+	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 * If t keeps its nodes in other slots they are copied here first, in O(t.size())
+	 * and released there.
+	 * precondition: keys(t) < k < keys() or keys(t) > k > keys(). t/tree might be empty (rank = -1).
+	 */
+	public int join(long k, V i, LongAVLTree<V> t) {
+		int other = (t.slots == this.slots) ? t.root : this.copyOf(t);
+		Slots s = this.slots;
+		int complexity = Math.abs(s.rank[this.root] - s.rank[other]) + 1;
+		int x = s.allocate(k, i);
+		boolean thisSmaller = this.empty() ? (other == VIRTUAL || s.key[other] > k) : s.key[this.root] < k;
+		this.root = thisSmaller ? s.join(this.root, x, other) : s.join(other, x, this.root);
+		this.updateMinMax();
+		if (t.slots != this.slots) { // t was copied, its slots go back to the trees that share them
+			t.slots.releaseAll(t.root);
+		}
+		t.root = VIRTUAL;
+		t.updateMinMax();
+		return complexity;
+	}
+
+	// copies the items of t into new slots here, as a balanced subtree, and returns its root
+	private int copyOf(LongAVLTree<V> t) {
+		int[] order = new int[t.size()];
+		int i = 0;
+		for (int node = t.min; node != VIRTUAL; node = t.slots.successor(node)) {
+			order[i++] = this.slots.allocate(t.slots.key[node], t.slots.value[node]);
+		}
+		return this.slots.build(order, 0, order.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int node) {
+		return (V) this.slots.value[node];
+	}
+
+	// sets min,max to the edges of the tree
+	private void updateMinMax() {
+		this.min = this.slots.leftmost(this.root);
+		this.max = this.slots.rightmost(this.root);
+	}
+
+	/**
+	 * private static class Slots
+	 *
+	 * AVLSlots with long keys.
+	 */
+	private static final class Slots extends AVLSlots {
+		private long[] key;
+
+		private Slots(int capacity) {
+			super(capacity);
+			this.key = new long[capacity];
+		}
+
+		// returns a slot holding a new leaf with key k and value i
+		private int allocate(long k, Object i) {
+			int node = this.allocate(i);
+			this.key[node] = k;
+			return node;
+		}
+
+		@Override
+		void growKeys(int capacity) {
+			this.key = Arrays.copyOf(this.key, capacity);
+		}
+
+		@Override
+		void copyKey(int from, int to) {
+			this.key[to] = this.key[from];
+		}
+	}
+}
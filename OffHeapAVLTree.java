@@ -0,0 +1,680 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ * OffHeapAVLTree
+ *
+ * An implementation of a AVL Tree with
+ * distinct integer keys and info, that keeps its nodes and info
+ * outside of the java heap, in direct buffers that the garbage collector never scans.
+ *
+ * Nodes are fixed size records addressed by their index, like the slots of IntAVLTree.
+ * Node 0 is the virtual leaf (rank -1, size 0).
+ * The info is kept as UTF-8 bytes in a separate value store, in blocks of power of 2 sizes
+ * that are reused after their item is deleted, so the memory follows the number of items in the tree,
+ * not the number of operations done on it.
+ * close() drops the buffers, trees created by split share them with the split tree
+ * and they are dropped when all of them are closed. The garbage collector then frees the memory.
+ *
+ */
+public class OffHeapAVLTree implements AutoCloseable {
+	private static final int VIRTUAL = 0;
+
+	private Store store;
+	private int root;
+	private int min;
+	private int max;
+
+	public OffHeapAVLTree() {
+		this(new Store(), VIRTUAL);
+	}
+
+	//use in split, the new tree shares the store of the split tree
+	private OffHeapAVLTree(Store store, int root) {
+		this.store = store;
+		this.store.trees++;
+		this.root = root;
+		this.updateMinMax();
+	}
+
+	// returns the store, or throws if the tree was closed
+	private Store store() {
+		if (this.store == null) {
+			throw new IllegalStateException("tree is closed");
+		}
+		return this.store;
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * releases this tree, the off-heap memory is dropped, to be freed by the collector,
+	 * when every tree sharing it was closed.
+	 * the tree can not be used after it was closed.
+	 */
+	public void close() {
+		if (this.store == null) {
+			return;
+		}
+		this.store.trees--;
+		if (this.store.trees == 0) {
+			this.store.free();
+		}
+		this.store = null;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		this.store();
+		return this.root == VIRTUAL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return this.store().size(this.root);
+	}
+
+	// returns the node of key k, or VIRTUAL if k is not in the tree
+	private int searchNode(int k) {
+		Store s = this.store();
+		int node = this.root;
+		while (node != VIRTUAL && s.key(node) != k) {
+			node = (s.key(node) > k) ? s.left(node) : s.right(node);
+		}
+		return node;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int node = this.searchNode(k);
+		return (node == VIRTUAL) ? null : this.store.value(node);
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the AVL tree.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	 * promotion/rotation - counted as one rebalnce operation, double-rotation is counted as 2.
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		Store s = this.store();
+		if (this.root == VIRTUAL) {
+			this.root = s.allocate(k, i);
+			this.min = this.root;
+			this.max = this.root;
+			return 0;
+		}
+		int parent = this.root;
+		while (true) {
+			if (s.key(parent) == k) {
+				return -1;
+			}
+			int next = (s.key(parent) > k) ? s.left(parent) : s.right(parent);
+			if (next == VIRTUAL) {
+				break;
+			}
+			parent = next;
+		}
+		int node = s.allocate(k, i);
+		if (s.key(parent) > k) {
+			s.setLeft(parent, node);
+		} else {
+			s.setRight(parent, node);
+		}
+		s.setParent(node, parent);
+		if (k < s.key(this.min)) {
+			this.min = node;
+		}
+		if (k > s.key(this.max)) {
+			this.max = node;
+		}
+		s.rebalanced = 0;
+		this.root = s.fixUp(parent);
+		return s.rebalanced;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+	 * demotion/rotation - counted as one rebalnce operation, double-rotation is counted as 2.
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		int node = this.searchNode(k);
+		if (node == VIRTUAL) {
+			return -1;
+		}
+		Store s = this.store;
+		s.releaseValue(node);
+		// node with 2 sons takes its successor's item, and the successor record is removed instead
+		if (s.left(node) != VIRTUAL && s.right(node) != VIRTUAL) {
+			int successor = s.leftmost(s.right(node));
+			s.moveItem(successor, node);
+			node = successor;
+		}
+		int son = (s.left(node) != VIRTUAL) ? s.left(node) : s.right(node);
+		int parent = s.parent(node);
+		s.replaceSon(parent, node, son);
+		s.release(node);
+		s.rebalanced = 0;
+		this.root = (parent == VIRTUAL) ? son : s.fixUp(parent);
+		this.updateMinMax();
+		return s.rebalanced;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return this.empty() ? null : this.store.value(this.min);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return this.empty() ? null : this.store.value(this.max);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		Store s = this.store();
+		int[] arr = new int[s.size(this.root)];
+		int i = 0;
+		for (int node = this.min; node != VIRTUAL; node = s.successor(node)) {
+			arr[i++] = s.key(node);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		Store s = this.store();
+		String[] arr = new String[s.size(this.root)];
+		int i = 0;
+		for (int node = this.min; node != VIRTUAL; node = s.successor(node)) {
+			arr[i++] = s.value(node);
+		}
+		return arr;
+	}
+
+	/**
+	 * public OffHeapAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * Both trees share this tree's memory, and this tree is closed.
+	 * precondition: search(x) != null (i.e. you can also assume that the tree is not empty)
+	 */
+	public OffHeapAVLTree[] split(int x) {
+		int node = this.searchNode(x);
+		Store s = this.store;
+		int smaller = s.detach(s.left(node));
+		int bigger = s.detach(s.right(node));
+		int son = node;
+		int parent = s.parent(node);
+		s.releaseValue(node);
+		s.release(node);
+		while (parent != VIRTUAL) {
+			int next = s.parent(parent);
+			if (s.right(parent) == son) {
+				smaller = s.join(s.detach(s.left(parent)), parent, smaller);
+			} else {
+				bigger = s.join(bigger, parent, s.detach(s.right(parent)));
+			}
+			son = parent;
+			parent = next;
+		}
+		OffHeapAVLTree[] trees = {new OffHeapAVLTree(s, smaller), new OffHeapAVLTree(s, bigger)};
+		this.root = VIRTUAL;
+		this.close();
+		return trees;
+	}
+
+	/**
+	 * public int join(int k, String i, OffHeapAVLTree t)
+	 *
+	 * joins t and a new item (k, i) with the tree, t is closed.
+	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 * If t keeps its nodes in another store they are copied here first, in O(t.size()).
+	 * precondition: keys(t) < k < keys() or keys(t) > k > keys(). t/tree might be empty (rank = -1).
+	 */
+	public int join(int k, String i, OffHeapAVLTree t) {
+		Store s = this.store();
+		int other = (t.store() == s) ? t.root : s.copyOf(t);
+		int complexity = Math.abs(s.rank(this.root) - s.rank(other)) + 1;
+		int x = s.allocate(k, i);
+		boolean thisSmaller = this.empty() ? (other == VIRTUAL || s.key(other) > k) : s.key(this.root) < k;
+		this.root = thisSmaller ? s.join(this.root, x, other) : s.join(other, x, this.root);
+		this.updateMinMax();
+		t.root = VIRTUAL;
+		t.close();
+		return complexity;
+	}
+
+	// returns the bytes of off-heap memory taken for info, by this tree and the trees sharing its store
+	long valueBytes() {
+		return this.store().valueBytes();
+	}
+
+	// sets min,max to the edges of the tree
+	private void updateMinMax() {
+		this.min = this.store.leftmost(this.root);
+		this.max = this.store.rightmost(this.root);
+	}
+
+	/**
+	 * private static class Store
+	 *
+	 * The off-heap memory of one or more trees (trees created by split share it).
+	 * Nodes are NODE_BYTES records in chunks of CHUNK_NODES records, so growing never copies.
+	 * Released records are kept in a free list linked through their right son.
+	 * Info bytes are kept in blocks of 2^c bytes (c >= MIN_CLASS) cut from value chunks.
+	 * A block of deleted info goes to the free list of its class c, linked through its first 8 bytes
+	 * (chunk and offset of the next block), and the next info of the same class takes it,
+	 * so a store never holds more than twice the bytes of its live info plus its free blocks.
+	 * The linking, rotations and joins follow AVLSlots, over buffer records instead of arrays.
+	 */
+	private static class Store {
+		private static final int CHUNK_SHIFT = 16;
+		private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+		private static final int VALUE_CHUNK_BYTES = 1 << 22;
+		private static final int MIN_CLASS = 3; // 8 byte blocks, room for the free list link
+
+		// node record layout
+		private static final int KEY = 0;
+		private static final int LEFT = 4;
+		private static final int RIGHT = 8;
+		private static final int PARENT = 12;
+		private static final int RANK = 16;
+		private static final int SIZE = 20;
+		private static final int VALUE_LENGTH = 24; // -1 for null info
+		private static final int VALUE_CHUNK = 28;
+		private static final int VALUE_OFFSET = 32;
+		private static final int NODE_BYTES = 36;
+
+		private final ArrayList<ByteBuffer> nodes = new ArrayList<>();
+		private final ArrayList<ByteBuffer> values = new ArrayList<>();
+		private int used = 1; // node 0 is the virtual leaf
+		private int free = VIRTUAL; // first released node
+		private final int[] freeChunk = new int[32]; // first free block of each class, chunk -1 if none
+		private final int[] freeOffset = new int[32];
+		private int trees; // open trees using this store
+		private int rebalanced; // rebalancing operations done by fixUp
+
+		private Store() {
+			this.addNodeChunk();
+			this.setRank(VIRTUAL, -1);
+			Arrays.fill(this.freeChunk, -1);
+		}
+
+		private void addNodeChunk() {
+			this.nodes.add(ByteBuffer.allocateDirect(CHUNK_NODES * NODE_BYTES).order(ByteOrder.nativeOrder()));
+		}
+
+		private ByteBuffer chunk(int node) {
+			return this.nodes.get(node >>> CHUNK_SHIFT);
+		}
+
+		private static int offset(int node, int field) {
+			return (node & (CHUNK_NODES - 1)) * NODE_BYTES + field;
+		}
+
+		private int key(int node) { return this.chunk(node).getInt(offset(node, KEY)); }
+		private int left(int node) { return this.chunk(node).getInt(offset(node, LEFT)); }
+		private int right(int node) { return this.chunk(node).getInt(offset(node, RIGHT)); }
+		private int parent(int node) { return this.chunk(node).getInt(offset(node, PARENT)); }
+		private int rank(int node) { return this.chunk(node).getInt(offset(node, RANK)); }
+		private int size(int node) { return this.chunk(node).getInt(offset(node, SIZE)); }
+		private void setKey(int node, int key) { this.chunk(node).putInt(offset(node, KEY), key); }
+		private void setLeft(int node, int left) { this.chunk(node).putInt(offset(node, LEFT), left); }
+		private void setRight(int node, int right) { this.chunk(node).putInt(offset(node, RIGHT), right); }
+		private void setRank(int node, int rank) { this.chunk(node).putInt(offset(node, RANK), rank); }
+		private void setSize(int node, int size) { this.chunk(node).putInt(offset(node, SIZE), size); }
+
+		// sets node's parent, the virtual leaf has no parent
+		private void setParent(int node, int parent) {
+			if (node != VIRTUAL) {
+				this.chunk(node).putInt(offset(node, PARENT), parent);
+			}
+		}
+
+		// returns the info of node, decoded from the value store
+		private String value(int node) {
+			ByteBuffer chunk = this.chunk(node);
+			int length = chunk.getInt(offset(node, VALUE_LENGTH));
+			if (length < 0) {
+				return null;
+			}
+			ByteBuffer bytes = this.values.get(chunk.getInt(offset(node, VALUE_CHUNK))).duplicate();
+			int from = chunk.getInt(offset(node, VALUE_OFFSET));
+			bytes.limit(from + length).position(from);
+			return StandardCharsets.UTF_8.decode(bytes).toString();
+		}
+
+		// returns the class of a block for length bytes, the smallest c >= MIN_CLASS with 2^c >= length
+		private static int sizeClass(int length) {
+			return (length <= 1 << MIN_CLASS) ? MIN_CLASS : 32 - Integer.numberOfLeadingZeros(length - 1);
+		}
+
+		// writes info i to a block of the value store, a free one of its class if there is one, and records it in node
+		private void setValue(int node, String i) {
+			ByteBuffer chunk = this.chunk(node);
+			if (i == null) {
+				chunk.putInt(offset(node, VALUE_LENGTH), -1);
+				return;
+			}
+			byte[] bytes = i.getBytes(StandardCharsets.UTF_8);
+			int c = sizeClass(bytes.length);
+			int valueChunk = this.freeChunk[c];
+			int from = this.freeOffset[c];
+			if (valueChunk >= 0) {
+				ByteBuffer block = this.values.get(valueChunk);
+				this.freeChunk[c] = block.getInt(from);
+				this.freeOffset[c] = block.getInt(from + 4);
+			} else {
+				ByteBuffer last = this.values.isEmpty() ? null : this.values.get(this.values.size() - 1);
+				if (last == null || last.remaining() < (1 << c)) {
+					last = ByteBuffer.allocateDirect(Math.max(VALUE_CHUNK_BYTES, 1 << c));
+					this.values.add(last);
+				}
+				valueChunk = this.values.size() - 1;
+				from = last.position();
+				last.position(from + (1 << c));
+			}
+			ByteBuffer target = this.values.get(valueChunk).duplicate();
+			target.position(from);
+			target.put(bytes);
+			chunk.putInt(offset(node, VALUE_LENGTH), bytes.length);
+			chunk.putInt(offset(node, VALUE_CHUNK), valueChunk);
+			chunk.putInt(offset(node, VALUE_OFFSET), from);
+		}
+
+		// puts the block of node's info on the free list of its class, before node is deleted
+		private void releaseValue(int node) {
+			ByteBuffer chunk = this.chunk(node);
+			int length = chunk.getInt(offset(node, VALUE_LENGTH));
+			if (length < 0) {
+				return;
+			}
+			int c = sizeClass(length);
+			int valueChunk = chunk.getInt(offset(node, VALUE_CHUNK));
+			int from = chunk.getInt(offset(node, VALUE_OFFSET));
+			ByteBuffer block = this.values.get(valueChunk);
+			block.putInt(from, this.freeChunk[c]);
+			block.putInt(from + 4, this.freeOffset[c]);
+			this.freeChunk[c] = valueChunk;
+			this.freeOffset[c] = from;
+		}
+
+		// returns the number of bytes of the value chunks
+		private long valueBytes() {
+			long bytes = 0;
+			for (ByteBuffer buffer : this.values) {
+				bytes += buffer.capacity();
+			}
+			return bytes;
+		}
+
+		// moves the info of node from into node to, without copying the bytes
+		private void moveItem(int from, int to) {
+			ByteBuffer source = this.chunk(from);
+			ByteBuffer target = this.chunk(to);
+			this.setKey(to, this.key(from));
+			target.putInt(offset(to, VALUE_LENGTH), source.getInt(offset(from, VALUE_LENGTH)));
+			target.putInt(offset(to, VALUE_CHUNK), source.getInt(offset(from, VALUE_CHUNK)));
+			target.putInt(offset(to, VALUE_OFFSET), source.getInt(offset(from, VALUE_OFFSET)));
+		}
+
+		// returns a node holding a new leaf with key k and info i
+		private int allocate(int k, String i) {
+			int node;
+			if (this.free != VIRTUAL) {
+				node = this.free;
+				this.free = this.right(node);
+			} else {
+				if (this.used == this.nodes.size() * CHUNK_NODES) {
+					this.addNodeChunk();
+				}
+				node = this.used++;
+			}
+			this.setKey(node, k);
+			this.setValue(node, i);
+			this.setLeft(node, VIRTUAL);
+			this.setRight(node, VIRTUAL);
+			this.setParent(node, VIRTUAL);
+			this.setRank(node, 0);
+			this.setSize(node, 1);
+			return node;
+		}
+
+		// returns node to the free list
+		private void release(int node) {
+			this.setRight(node, this.free);
+			this.free = node;
+		}
+
+		// drops all the off-heap memory of the store, the collector frees it with the buffers
+		private void free() {
+			this.nodes.clear();
+			this.values.clear();
+		}
+
+		private int leftmost(int node) {
+			while (this.left(node) != VIRTUAL) {
+				node = this.left(node);
+			}
+			return node;
+		}
+
+		private int rightmost(int node) {
+			while (this.right(node) != VIRTUAL) {
+				node = this.right(node);
+			}
+			return node;
+		}
+
+		// returns node's successor, or VIRTUAL if node is the maximum
+		private int successor(int node) {
+			if (this.right(node) != VIRTUAL) {
+				return this.leftmost(this.right(node));
+			}
+			int parent = this.parent(node);
+			while (parent != VIRTUAL && this.right(parent) == node) {
+				node = parent;
+				parent = this.parent(parent);
+			}
+			return parent;
+		}
+
+		// makes node the root of its own subtree and returns it
+		private int detach(int node) {
+			this.setParent(node, VIRTUAL);
+			return node;
+		}
+
+		// puts son instead of node under parent
+		private void replaceSon(int parent, int node, int son) {
+			if (parent != VIRTUAL) {
+				if (this.left(parent) == node) {
+					this.setLeft(parent, son);
+				} else {
+					this.setRight(parent, son);
+				}
+			}
+			this.setParent(son, parent);
+		}
+
+		// sets node's rank and size from its sons
+		private void update(int node) {
+			int left = this.left(node);
+			int right = this.right(node);
+			this.setRank(node, Math.max(this.rank(left), this.rank(right)) + 1);
+			this.setSize(node, this.size(left) + this.size(right) + 1);
+		}
+
+		private int rotateRight(int node) {
+			int son = this.left(node);
+			this.replaceSon(this.parent(node), node, son);
+			this.setLeft(node, this.right(son));
+			this.setParent(this.right(son), node);
+			this.setRight(son, node);
+			this.setParent(node, son);
+			this.update(node);
+			this.update(son);
+			this.rebalanced++;
+			return son;
+		}
+
+		private int rotateLeft(int node) {
+			int son = this.right(node);
+			this.replaceSon(this.parent(node), node, son);
+			this.setRight(node, this.left(son));
+			this.setParent(this.left(son), node);
+			this.setLeft(son, node);
+			this.setParent(node, son);
+			this.update(node);
+			this.update(son);
+			this.rebalanced++;
+			return son;
+		}
+
+		/**
+		 * private int fixUp(int node)
+		 *
+		 * walks from node up to the root of its tree, updating ranks and sizes
+		 * and rotating where the rank difference of the sons became 2.
+		 * returns the root of the tree.
+		 */
+		private int fixUp(int node) {
+			int top = node;
+			while (node != VIRTUAL) {
+				int oldRank = this.rank(node);
+				this.update(node);
+				int balance = this.rank(this.left(node)) - this.rank(this.right(node));
+				if (balance > 1) {
+					int son = this.left(node);
+					if (this.rank(this.left(son)) < this.rank(this.right(son))) {
+						this.rotateLeft(son);
+					}
+					node = this.rotateRight(node);
+				} else if (balance < -1) {
+					int son = this.right(node);
+					if (this.rank(this.right(son)) < this.rank(this.left(son))) {
+						this.rotateRight(son);
+					}
+					node = this.rotateLeft(node);
+				} else if (this.rank(node) != oldRank) { // promotion / demotion
+					this.rebalanced++;
+				}
+				top = node;
+				node = this.parent(node);
+			}
+			return top;
+		}
+
+		/**
+		 * private int join(int smaller, int x, int bigger)
+		 *
+		 * joins the detached subtrees smaller, bigger and the single node x,
+		 * where keys(smaller) < key(x) < keys(bigger).
+		 * returns the root of the joined tree, in O(|rank(smaller) - rank(bigger)| + 1).
+		 */
+		private int join(int smaller, int x, int bigger) {
+			int parent = VIRTUAL;
+			if (this.rank(smaller) > this.rank(bigger) + 1) { // go down the right spine of smaller
+				int node = smaller;
+				while (this.rank(node) > this.rank(bigger) + 1) {
+					parent = node;
+					node = this.right(node);
+				}
+				smaller = node;
+			} else if (this.rank(bigger) > this.rank(smaller) + 1) { // go down the left spine of bigger
+				int node = bigger;
+				while (this.rank(node) > this.rank(smaller) + 1) {
+					parent = node;
+					node = this.left(node);
+				}
+				bigger = node;
+			}
+			this.setLeft(x, smaller);
+			this.setRight(x, bigger);
+			this.setParent(x, parent);
+			this.setParent(smaller, x);
+			this.setParent(bigger, x);
+			if (parent == VIRTUAL) {
+				this.update(x);
+				return x;
+			}
+			if (this.key(parent) < this.key(x)) {
+				this.setRight(parent, x);
+			} else {
+				this.setLeft(parent, x);
+			}
+			return this.fixUp(x);
+		}
+
+		// copies the items of t into new nodes here as a balanced subtree, returns its root
+		private int copyOf(OffHeapAVLTree t) {
+			int[] keys = t.keysToArray();
+			String[] values = t.infoToArray();
+			return this.build(keys, values, 0, keys.length);
+		}
+
+		// builds a balanced subtree of keys[from..to) and returns its root
+		private int build(int[] keys, String[] values, int from, int to) {
+			if (from >= to) {
+				return VIRTUAL;
+			}
+			int mid = (from + to) >>> 1;
+			int node = this.allocate(keys[mid], values[mid]);
+			int smaller = this.build(keys, values, from, mid);
+			int bigger = this.build(keys, values, mid + 1, to);
+			this.setLeft(node, smaller);
+			this.setRight(node, bigger);
+			this.setParent(smaller, node);
+			this.setParent(bigger, node);
+			this.update(node);
+			return node;
+		}
+	}
+}
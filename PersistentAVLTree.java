@@ -0,0 +1,362 @@
+/**
+ *
+ * PersistentAVLTree
+ *
+ * An implementation of a AVL Tree with
+ * distinct integer keys and info, whose nodes are never changed.
+ * insert, delete, split and join copy only the O(log n) nodes on the path they change,
+ * and share the rest with the previous version of the tree,
+ * so snapshot() is O(1) and a snapshot keeps seeing the version it was taken from.
+ * Versions nobody refers to anymore are collected by the garbage collector.
+ *
+ * Nodes have no parent pointers, since a node may be shared by many versions.
+ *
+ */
+public class PersistentAVLTree {
+	// shared virtual leaf, height -1 and size 0
+	private static final Node VIRTUAL = new Node();
+
+	private volatile Node root;
+	private int rebalanced; // rotations done by the running operation
+
+	public PersistentAVLTree() {
+		this(VIRTUAL);
+	}
+
+	private PersistentAVLTree(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * public PersistentAVLTree snapshot()
+	 *
+	 * Returns the current version of the tree, in O(1).
+	 * later changes of this tree are not seen by the snapshot, and the other way around.
+	 */
+	public PersistentAVLTree snapshot() {
+		return new PersistentAVLTree(this.root);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return this.root == VIRTUAL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 */
+	public int size() {
+		return this.root.size;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		Node node = this.root;
+		while (node != VIRTUAL) {
+			if (node.key == k) {
+				return node.value;
+			}
+			node = (node.key > k) ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty. O(log n).
+	 */
+	public String min() {
+		Node node = this.root;
+		if (node == VIRTUAL) {
+			return null;
+		}
+		while (node.left != VIRTUAL) {
+			node = node.left;
+		}
+		return node.value;
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty. O(log n).
+	 */
+	public String max() {
+		Node node = this.root;
+		if (node == VIRTUAL) {
+			return null;
+		}
+		while (node.right != VIRTUAL) {
+			node = node.right;
+		}
+		return node.value;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the AVL tree, as a new version.
+	 * returns the number of rotations (double-rotation is counted as 2).
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		this.rebalanced = 0;
+		Node oldRoot = this.root;
+		Node newRoot = this.insert(oldRoot, k, i);
+		if (newRoot == oldRoot) {
+			return -1;
+		}
+		this.root = newRoot;
+		return this.rebalanced;
+	}
+
+	// returns node with (k, i) inserted, or node itself if k is in it
+	private Node insert(Node node, int k, String i) {
+		if (node == VIRTUAL) {
+			return new Node(k, i, VIRTUAL, VIRTUAL);
+		}
+		if (k == node.key) {
+			return node;
+		}
+		if (k < node.key) {
+			Node left = this.insert(node.left, k, i);
+			return (left == node.left) ? node : this.balance(node.key, node.value, left, node.right);
+		}
+		Node right = this.insert(node.right, k, i);
+		return (right == node.right) ? node : this.balance(node.key, node.value, node.left, right);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there, as a new version.
+	 * returns the number of rotations (double-rotation is counted as 2).
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		this.rebalanced = 0;
+		Node oldRoot = this.root;
+		Node newRoot = this.delete(oldRoot, k);
+		if (newRoot == oldRoot) {
+			return -1;
+		}
+		this.root = newRoot;
+		return this.rebalanced;
+	}
+
+	// returns node without key k, or node itself if k is not in it
+	private Node delete(Node node, int k) {
+		if (node == VIRTUAL) {
+			return node;
+		}
+		if (k < node.key) {
+			Node left = this.delete(node.left, k);
+			return (left == node.left) ? node : this.balance(node.key, node.value, left, node.right);
+		}
+		if (k > node.key) {
+			Node right = this.delete(node.right, k);
+			return (right == node.right) ? node : this.balance(node.key, node.value, node.left, right);
+		}
+		if (node.left == VIRTUAL) {
+			return node.right;
+		}
+		if (node.right == VIRTUAL) {
+			return node.left;
+		}
+		// node with 2 sons takes its successor's item
+		Node successor = node.right;
+		while (successor.left != VIRTUAL) {
+			successor = successor.left;
+		}
+		return this.balance(successor.key, successor.value, node.left, this.delete(node.right, successor.key));
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[this.root.size];
+		Node[] path = new Node[this.root.height + 1];
+		int depth = 0;
+		int i = 0;
+		Node node = this.root;
+		while (node != VIRTUAL || depth > 0) {
+			if (node != VIRTUAL) {
+				path[depth++] = node;
+				node = node.left;
+			} else {
+				node = path[--depth];
+				arr[i++] = node.key;
+				node = node.right;
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[this.root.size];
+		Node[] path = new Node[this.root.height + 1];
+		int depth = 0;
+		int i = 0;
+		Node node = this.root;
+		while (node != VIRTUAL || depth > 0) {
+			if (node != VIRTUAL) {
+				path[depth++] = node;
+				node = node.left;
+			} else {
+				node = path[--depth];
+				arr[i++] = node.value;
+				node = node.right;
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * public PersistentAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * the tree itself is not changed. O(log n).
+	 */
+	public PersistentAVLTree[] split(int x) {
+		Node[] halves = new Node[2];
+		this.split(this.root, x, halves);
+		PersistentAVLTree[] trees = {new PersistentAVLTree(halves[0]), new PersistentAVLTree(halves[1])};
+		return trees;
+	}
+
+	// sets halves to the nodes of node smaller / bigger than x
+	private void split(Node node, int x, Node[] halves) {
+		if (node == VIRTUAL) {
+			halves[0] = VIRTUAL;
+			halves[1] = VIRTUAL;
+		} else if (x == node.key) {
+			halves[0] = node.left;
+			halves[1] = node.right;
+		} else if (x < node.key) {
+			this.split(node.left, x, halves);
+			halves[1] = this.join(halves[1], node.key, node.value, node.right);
+		} else {
+			this.split(node.right, x, halves);
+			halves[0] = this.join(node.left, node.key, node.value, halves[0]);
+		}
+	}
+
+	/**
+	 * public int join(int k, String i, PersistentAVLTree t)
+	 *
+	 * joins t and a new item (k, i) with the tree, as a new version. t is not changed.
+	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 * precondition: keys(t) < k < keys() or keys(t) > k > keys(). t/tree might be empty (rank = -1).
+	 */
+	public int join(int k, String i, PersistentAVLTree t) {
+		Node mine = this.root;
+		Node other = t.root;
+		boolean thisSmaller = (mine != VIRTUAL) ? mine.key < k : (other == VIRTUAL || other.key > k);
+		this.root = thisSmaller ? this.join(mine, k, i, other) : this.join(other, k, i, mine);
+		return Math.abs(mine.height - other.height) + 1;
+	}
+
+	/**
+	 * private Node join(Node smaller, int k, String i, Node bigger)
+	 *
+	 * returns a tree of smaller, (k, i) and bigger, where keys(smaller) < k < keys(bigger).
+	 * goes down the spine of the higher tree to the height of the lower one,
+	 * so it copies O(|height(smaller) - height(bigger)| + 1) nodes.
+	 */
+	private Node join(Node smaller, int k, String i, Node bigger) {
+		if (smaller.height > bigger.height + 1) {
+			return this.balance(smaller.key, smaller.value, smaller.left, this.join(smaller.right, k, i, bigger));
+		}
+		if (bigger.height > smaller.height + 1) {
+			return this.balance(bigger.key, bigger.value, this.join(smaller, k, i, bigger.left), bigger.right);
+		}
+		return new Node(k, i, smaller, bigger);
+	}
+
+	/**
+	 * private Node balance(int k, String i, Node left, Node right)
+	 *
+	 * returns a new node (k, i) with sons left and right,
+	 * rotated if their heights differ by 2.
+	 */
+	private Node balance(int k, String i, Node left, Node right) {
+		if (left.height > right.height + 1) {
+			if (left.left.height < left.right.height) { // double rotation
+				this.rebalanced += 2;
+				Node b = left.right;
+				return new Node(b.key, b.value, new Node(left.key, left.value, left.left, b.left), new Node(k, i, b.right, right));
+			}
+			this.rebalanced++;
+			return new Node(left.key, left.value, left.left, new Node(k, i, left.right, right));
+		}
+		if (right.height > left.height + 1) {
+			if (right.right.height < right.left.height) { // double rotation
+				this.rebalanced += 2;
+				Node b = right.left;
+				return new Node(b.key, b.value, new Node(k, i, left, b.left), new Node(right.key, right.value, b.right, right.right));
+			}
+			this.rebalanced++;
+			return new Node(right.key, right.value, new Node(k, i, left, right.left), right.right);
+		}
+		return new Node(k, i, left, right);
+	}
+
+	/**
+	 * private static class Node
+	 *
+	 * An immutable node, its height and size are computed from its sons when it is created.
+	 */
+	private static final class Node {
+		private final int key;
+		private final String value;
+		private final Node left;
+		private final Node right;
+		private final int height;
+		private final int size;
+
+		private Node() { // constructor for the virtual leaf
+			this.key = -1;
+			this.value = null;
+			this.left = null;
+			this.right = null;
+			this.height = -1;
+			this.size = 0;
+		}
+
+		private Node(int key, String value, Node left, Node right) {
+			this.key = key;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(left.height, right.height) + 1;
+			this.size = left.size + right.size + 1;
+		}
+	}
+}
@@ -0,0 +1,447 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * ShardedAVLTree
+ *
+ * A thread safe map of distinct integer keys and info,
+ * made of AVLTree shards that each own a range of keys and have their own read-write lock,
+ * so writes to different ranges do not wait for each other, and reads of a shard only wait for its writes.
+ *
+ * Operations find their shard in the current layout without locking, take its read or write lock,
+ * and start over if the shard was replaced meanwhile.
+ * A shard that grows over maxShardSize keys is split in two with AVLTree.split,
+ * and rebalance() splits hot shards and joins small neighbours with AVLTree.join.
+ *
+ * Locks are always taken in increasing key order, and the layout lock last.
+ *
+ */
+public class ShardedAVLTree {
+	private static final int DEFAULT_MAX_SHARD_SIZE = 1 << 16;
+
+	private final int maxShardSize;
+	private final Object layoutLock = new Object(); // serializes layout changes
+	private volatile Layout layout;
+
+	public ShardedAVLTree() {
+		this(Runtime.getRuntime().availableProcessors() * 4, DEFAULT_MAX_SHARD_SIZE);
+	}
+
+	/**
+	 * public ShardedAVLTree(int shards, int maxShardSize)
+	 *
+	 * creates an empty tree with the int key space split evenly between shards.
+	 * a shard with more than maxShardSize keys is split.
+	 */
+	public ShardedAVLTree(int shards, int maxShardSize) {
+		if (shards < 1 || maxShardSize < 2) {
+			throw new IllegalArgumentException("shards must be positive and maxShardSize at least 2");
+		}
+		this.maxShardSize = maxShardSize;
+		Shard[] initial = new Shard[shards];
+		long width = (1L << 32) / shards;
+		for (int i = 0; i < shards; i++) {
+			long lo = Integer.MIN_VALUE + i * width;
+			long hi = (i == shards - 1) ? Integer.MAX_VALUE : lo + width - 1;
+			initial[i] = new Shard(new AVLTree(), (int) lo, (int) hi);
+		}
+		this.layout = new Layout(initial);
+	}
+
+	/**
+	 * private Shard lockShard(int k, boolean write)
+	 *
+	 * returns the shard that owns key k, with its write lock held if write, else its read lock.
+	 * the layout is read without locking, so a shard that was replaced
+	 * after it was found is unlocked and looked up again.
+	 */
+	private Shard lockShard(int k, boolean write) {
+		while (true) {
+			Shard shard = this.layout.find(k);
+			Lock lock = write ? shard.writeLock : shard.readLock;
+			lock.lock();
+			if (!shard.retired) {
+				return shard;
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i, as AVLTree.insert.
+	 * splits the shard if it became larger than maxShardSize.
+	 */
+	public int insert(int k, String i) {
+		Shard shard = this.lockShard(k, true);
+		try {
+			int cnt = shard.tree.insert(k, i);
+			shard.touched();
+			if (shard.size > this.maxShardSize) {
+				this.splitShard(shard);
+			}
+			return cnt;
+		} finally {
+			shard.writeLock.unlock();
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes the item with key k, as AVLTree.delete.
+	 */
+	public int delete(int k) {
+		Shard shard = this.lockShard(k, true);
+		try {
+			int cnt = shard.tree.delete(k);
+			shard.touched();
+			return cnt;
+		} finally {
+			shard.writeLock.unlock();
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null. searches of the same shard run together, under its read lock.
+	 */
+	public String search(int k) {
+		Shard shard = this.lockShard(k, false);
+		try {
+			return shard.tree.search(k);
+		} finally {
+			shard.readLock.unlock();
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of keys, the sum of the shards' sizes.
+	 * while other threads write, it may count some of their changes and miss others.
+	 */
+	public int size() {
+		int size = 0;
+		for (Shard shard : this.layout.shards) {
+			size += shard.size;
+		}
+		return size;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.size() == 0;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key,
+	 * the min of the first shard that is not empty, or null if the tree is empty
+	 */
+	public String min() {
+		while (true) {
+			Shard[] shards = this.layout.shards;
+			boolean retired = false;
+			for (int i = 0; i < shards.length && !retired; i++) {
+				shards[i].readLock.lock();
+				try {
+					retired = shards[i].retired;
+					if (!retired && !shards[i].tree.empty()) { // its min may have null info
+						return shards[i].tree.min();
+					}
+				} finally {
+					shards[i].readLock.unlock();
+				}
+			}
+			if (!retired) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key,
+	 * the max of the last shard that is not empty, or null if the tree is empty
+	 */
+	public String max() {
+		while (true) {
+			Shard[] shards = this.layout.shards;
+			boolean retired = false;
+			for (int i = shards.length - 1; i >= 0 && !retired; i--) {
+				shards[i].readLock.lock();
+				try {
+					retired = shards[i].retired;
+					if (!retired && !shards[i].tree.empty()) { // its max may have null info
+						return shards[i].tree.max();
+					}
+				} finally {
+					shards[i].readLock.unlock();
+				}
+			}
+			if (!retired) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys,
+	 * taken with all the shards read locked so it is one consistent state.
+	 */
+	public int[] keysToArray() {
+		Shard[] shards = this.lockAll();
+		try {
+			int size = 0;
+			for (Shard shard : shards) {
+				size += shard.size;
+			}
+			int[] arr = new int[size];
+			int offset = 0;
+			for (Shard shard : shards) {
+				offset += shard.tree.keysToArray(arr, offset, shard.size);
+			}
+			return arr;
+		} finally {
+			unlockAll(shards);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info, sorted by their respective keys,
+	 * taken with all the shards read locked so it is one consistent state.
+	 */
+	public String[] infoToArray() {
+		Shard[] shards = this.lockAll();
+		try {
+			int size = 0;
+			for (Shard shard : shards) {
+				size += shard.size;
+			}
+			String[] arr = new String[size];
+			int offset = 0;
+			for (Shard shard : shards) {
+				offset += shard.tree.infoToArray(arr, offset, shard.size);
+			}
+			return arr;
+		} finally {
+			unlockAll(shards);
+		}
+	}
+
+	/**
+	 * public int shards()
+	 *
+	 * Returns the current number of shards.
+	 */
+	public int shards() {
+		return this.layout.shards.length;
+	}
+
+	/**
+	 * public void rebalance()
+	 *
+	 * splits the hottest shard if it had more than twice the average number of writes
+	 * since the last rebalance, and joins neighbour shards that together have
+	 * less than a quarter of maxShardSize keys.
+	 */
+	public void rebalance() {
+		Shard[] shards = this.layout.shards;
+		long total = 0;
+		Shard hottest = shards[0];
+		for (Shard shard : shards) {
+			total += shard.writes;
+			if (shard.writes > hottest.writes) {
+				hottest = shard;
+			}
+		}
+		if (hottest.writes * shards.length > 2 * total) {
+			hottest.writeLock.lock();
+			try {
+				if (!hottest.retired && hottest.size >= 2) {
+					this.splitShard(hottest);
+				}
+			} finally {
+				hottest.writeLock.unlock();
+			}
+		}
+		for (int i = 0; i + 1 < shards.length; i++) {
+			if (shards[i].size + shards[i + 1].size < this.maxShardSize / 4 && this.joinShards(shards[i], shards[i + 1])) {
+				i++;
+			}
+		}
+		for (Shard shard : this.layout.shards) {
+			shard.writes = 0;
+		}
+	}
+
+	/**
+	 * private void splitShard(Shard shard)
+	 *
+	 * splits a shard at its median key with AVLTree.split, and puts the halves in the layout.
+	 * precondition: shard is locked, not retired and has at least 2 keys
+	 */
+	private void splitShard(Shard shard) {
+		AVLTree tree = shard.tree;
+		int median = tree.selectKey(tree.size() / 2);
+		String value = tree.search(median);
+		AVLTree[] halves = tree.split(median);
+		halves[1].insert(median, value);
+		Shard smaller = new Shard(halves[0], shard.lo, median - 1);
+		Shard bigger = new Shard(halves[1], median, shard.hi);
+		synchronized (this.layoutLock) {
+			this.layout = this.layout.replace(shard, null, smaller, bigger);
+			shard.retired = true;
+		}
+	}
+
+	/**
+	 * private boolean joinShards(Shard left, Shard right)
+	 *
+	 * joins two neighbour shards with AVLTree.join, using the smallest item of right as the middle node.
+	 * returns false if one of them was replaced meanwhile.
+	 */
+	private boolean joinShards(Shard left, Shard right) {
+		left.writeLock.lock();
+		right.writeLock.lock();
+		try {
+			if (left.retired || right.retired) {
+				return false;
+			}
+			AVLTree tree = left.tree;
+			if (!right.tree.empty()) {
+				int first = right.tree.selectKey(0);
+				String value = right.tree.select(0);
+				right.tree.delete(first);
+				tree.join(tree.new AVLNode(first, value), right.tree);
+			}
+			Shard joined = new Shard(tree, left.lo, right.hi);
+			synchronized (this.layoutLock) {
+				this.layout = this.layout.replace(left, right, joined, null);
+				left.retired = true;
+				right.retired = true;
+			}
+			return true;
+		} finally {
+			right.writeLock.unlock();
+			left.writeLock.unlock();
+		}
+	}
+
+	// takes the read locks of all the shards of the current layout in key order
+	private Shard[] lockAll() {
+		while (true) {
+			Shard[] shards = this.layout.shards;
+			int locked = 0;
+			while (locked < shards.length) {
+				shards[locked].readLock.lock();
+				if (shards[locked].retired) {
+					break;
+				}
+				locked++;
+			}
+			if (locked == shards.length) {
+				return shards;
+			}
+			unlockAll(Arrays.copyOf(shards, locked + 1));
+		}
+	}
+
+	private static void unlockAll(Shard[] shards) {
+		for (int i = shards.length - 1; i >= 0; i--) {
+			shards[i].readLock.unlock();
+		}
+	}
+
+	/**
+	 * private static class Shard
+	 *
+	 * an AVLTree that owns the keys lo..hi (inclusive), and its locks.
+	 * the tree is read under readLock and changed under writeLock (the shard's tree has no search cache,
+	 * so a search does not write).
+	 * a retired shard was replaced in the layout and must not be used.
+	 */
+	private static class Shard {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final Lock readLock = this.lock.readLock();
+		private final Lock writeLock = this.lock.writeLock();
+		private final AVLTree tree;
+		private final int lo;
+		private final int hi;
+		private boolean retired;
+		private volatile int size;
+		private volatile long writes; // since the last rebalance
+
+		private Shard(AVLTree tree, int lo, int hi) {
+			this.tree = tree;
+			this.lo = lo;
+			this.hi = hi;
+			this.size = tree.size();
+		}
+
+		// updates the size and write count after a write, under the write lock
+		private void touched() {
+			this.size = this.tree.size();
+			this.writes++;
+		}
+	}
+
+	/**
+	 * private static class Layout
+	 *
+	 * the shards sorted by key range, never changed after it is published.
+	 */
+	private static class Layout {
+		private final Shard[] shards;
+		private final int[] starts;
+
+		private Layout(Shard[] shards) {
+			this.shards = shards;
+			this.starts = new int[shards.length];
+			for (int i = 0; i < shards.length; i++) {
+				this.starts[i] = shards[i].lo;
+			}
+		}
+
+		// returns the shard whose range holds k
+		private Shard find(int k) {
+			int at = Arrays.binarySearch(this.starts, k);
+			return this.shards[(at >= 0) ? at : -at - 2];
+		}
+
+		// returns a layout with first (and second, if not null) replaced by a and b (if not null)
+		private Layout replace(Shard first, Shard second, Shard a, Shard b) {
+			int removed = (second == null) ? 1 : 2;
+			int added = (b == null) ? 1 : 2;
+			Shard[] result = new Shard[this.shards.length - removed + added];
+			int j = 0;
+			for (int i = 0; i < this.shards.length; i++) {
+				if (this.shards[i] == first) {
+					result[j++] = a;
+					if (b != null) {
+						result[j++] = b;
+					}
+				} else if (this.shards[i] != second) {
+					result[j++] = this.shards[i];
+				}
+			}
+			return new Layout(result);
+		}
+	}
+}
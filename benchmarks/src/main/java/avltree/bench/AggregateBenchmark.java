@@ -0,0 +1,97 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * AggregateBenchmark
+ *
+ * Sums of ranges of width keys in an AVLTree of size keys augmented with the sum of its keys:
+ * with aggregate, and by visiting the range with forEachInRange as a tree without the augmentation has to.
+ * churn deletes a key and inserts it back, to show the cost of keeping the sums.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AggregateBenchmark {
+	private static final int PROBES = 256;
+
+	@Param({"1000", "100000", "10000000"})
+	public int size;
+
+	@Param({"10", "1000", "100000"})
+	public int width;
+
+	private AVLTree tree;
+	private int[] starts;
+	private int[] keys;
+	private long sum;
+
+	@Setup
+	public void fill() {
+		this.tree = new AVLTree(AVLTree.Augmentation.sum((key, value) -> key));
+		int[] sorted = Keys.of(this.size, "sequential");
+		String[] values = new String[this.size];
+		Arrays.fill(values, IntMap.VALUE);
+		this.tree.insertAll(sorted, values, null);
+		Random random = new Random(42);
+		this.starts = new int[PROBES];
+		for (int i = 0; i < PROBES; i++) {
+			this.starts[i] = 2 * random.nextInt(this.size);
+		}
+		this.keys = Keys.probes(this.size, PROBES, true);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public long aggregate() {
+		long total = 0;
+		for (int lo : this.starts) {
+			total += this.tree.aggregate(lo, lo + 2 * (this.width - 1));
+		}
+		return total;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public long forEachInRange() {
+		long total = 0;
+		for (int lo : this.starts) {
+			this.sum = 0;
+			this.tree.forEachInRange(lo, lo + 2 * (this.width - 1), (key, value) -> this.sum += key);
+			total += this.sum;
+		}
+		return total;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public int churn() {
+		for (int k : this.keys) {
+			this.tree.delete(k);
+			this.tree.insert(k, IntMap.VALUE);
+		}
+		return this.tree.size();
+	}
+}
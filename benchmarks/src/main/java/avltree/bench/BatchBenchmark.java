@@ -0,0 +1,88 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * BatchBenchmark
+ *
+ * Inserting a batch of missing keys into an AVLTree of size keys and deleting it again (per batch):
+ * with insertAll / deleteAll and with one insert / delete per key.
+ * random batches are spread over the whole tree, clustered batches are consecutive keys.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BatchBenchmark {
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"100", "10000"})
+	public int batch;
+
+	@Param({"random", "clustered"})
+	public String spread;
+
+	private AVLTree tree;
+	private int[] keys;
+	private String[] values;
+
+	@Setup
+	public void fill() {
+		int[] sorted = Keys.of(this.size, "sequential");
+		String[] all = new String[this.size];
+		Arrays.fill(all, IntMap.VALUE);
+		this.tree = AVLTree.fromSorted(sorted, all);
+		Random random = new Random(42);
+		if (this.spread.equals("random")) {
+			this.keys = Keys.probes(this.size, this.batch, false);
+			this.keys = Arrays.stream(this.keys).sorted().distinct().toArray();
+		} else {
+			int first = random.nextInt(this.size - this.batch);
+			this.keys = new int[this.batch];
+			for (int i = 0; i < this.batch; i++) {
+				this.keys[i] = 2 * (first + i) + 1; // the odd keys are missing
+			}
+		}
+		this.values = new String[this.keys.length];
+		Arrays.fill(this.values, IntMap.VALUE);
+	}
+
+	@Benchmark
+	public int batch() {
+		this.tree.insertAll(this.keys, this.values, null);
+		this.tree.deleteAll(this.keys, null);
+		return this.tree.size();
+	}
+
+	@Benchmark
+	public int single() {
+		for (int i = 0; i < this.keys.length; i++) {
+			this.tree.insert(this.keys[i], this.values[i]);
+		}
+		for (int k : this.keys) {
+			this.tree.delete(k);
+		}
+		return this.tree.size();
+	}
+}
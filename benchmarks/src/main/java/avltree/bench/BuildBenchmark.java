@@ -0,0 +1,61 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * BuildBenchmark
+ *
+ * Time to make an AVLTree of size keys given in random order:
+ * with AVLTree.build (parallel sort and fork-join build) and with size inserts.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BuildBenchmark {
+	@Param({"10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private int[] keys;
+	private String[] values;
+
+	@Setup
+	public void keys() {
+		this.keys = Keys.of(this.size, "random");
+		this.values = new String[this.size];
+		Arrays.fill(this.values, IntMap.VALUE);
+	}
+
+	@Benchmark
+	public AVLTree build() {
+		return AVLTree.build(this.keys, this.values);
+	}
+
+	@Benchmark
+	public AVLTree inserts() {
+		AVLTree tree = new AVLTree();
+		for (int i = 0; i < this.keys.length; i++) {
+			tree.insert(this.keys[i], this.values[i]);
+		}
+		return tree;
+	}
+}
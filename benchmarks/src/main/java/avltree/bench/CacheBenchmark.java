@@ -0,0 +1,83 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * CacheBenchmark
+ *
+ * Search hits on an AVLTree of size keys where 9 of 10 searches are for one of HOT keys,
+ * and the rest for any key, with the hot key cache off (capacity 0), smaller than the hot keys and larger.
+ * The hit ratio of the cache is printed at the end of each fork.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CacheBenchmark {
+	private static final int PROBES = 1 << 16;
+	private static final int HOT = 4096;
+
+	@Param({"100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"0", "1024", "8192"})
+	public int capacity;
+
+	private AVLTree tree;
+	private int[] probes;
+
+	@Setup
+	public void fill() {
+		int[] keys = Keys.of(this.size, "sequential");
+		String[] values = new String[this.size];
+		Arrays.fill(values, IntMap.VALUE);
+		this.tree = AVLTree.fromSorted(keys, values);
+		this.tree.setCacheCapacity(this.capacity);
+		int[] hot = Keys.probes(this.size, HOT, true);
+		Random random = new Random(42);
+		this.probes = new int[PROBES];
+		for (int p = 0; p < PROBES; p++) {
+			this.probes[p] = (random.nextInt(10) < 9) ? hot[random.nextInt(HOT)] : keys[random.nextInt(this.size)];
+		}
+	}
+
+	@TearDown
+	public void report() {
+		long hits = this.tree.cacheHits();
+		long searches = hits + this.tree.cacheMisses();
+		if (searches > 0) {
+			System.out.printf("%ncache hit ratio %.3f%n", (double) hits / searches);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void search(Blackhole blackhole) {
+		for (int k : this.probes) {
+			blackhole.consume(this.tree.search(k));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package avltree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * ChurnBenchmark
+ *
+ * Updates of a map that stays at size keys: each operation deletes a random key
+ * and inserts it back, so every call walks the full update path of a tree of that size.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChurnBenchmark {
+	private static final int PROBES = 1024;
+
+	@Param({"AVLTree", "BlockAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private IntMap map;
+	private int[] keys;
+
+	@Setup
+	public void fill() {
+		this.map = IntMap.filled(this.implementation, Keys.of(this.size, "random"));
+		this.keys = Keys.probes(this.size, PROBES, true);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public int deleteInsert() {
+		for (int k : this.keys) {
+			this.map.delete(k);
+			this.map.insert(k);
+		}
+		return this.map.size();
+	}
+}
@@ -0,0 +1,160 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+import avltree.ConcurrentAVLTree;
+import avltree.ShardedAVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * ConcurrentBenchmark
+ *
+ * Throughput of 3 reader threads and 1 writer thread sharing one map of size keys.
+ * Readers search random keys, the writer inserts and deletes random keys, so the size stays about the same.
+ * Compares ConcurrentAVLTree (optimistic reads), ShardedAVLTree (a lock per key range),
+ * an AVLTree behind one monitor, and ConcurrentSkipListMap.
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentBenchmark {
+	@Param({"ConcurrentAVLTree", "ShardedAVLTree", "SynchronizedAVLTree", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	private Shared map;
+
+	@Setup
+	public void fill() {
+		this.map = create(this.implementation);
+		for (int k : Keys.of(this.size, "random")) {
+			this.map.insert(k);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Probe {
+		private int seed = (int) System.nanoTime() | 1;
+
+		// xorshift, cheaper than Random and not shared between threads
+		int next(int bound) {
+			this.seed ^= this.seed << 13;
+			this.seed ^= this.seed >>> 17;
+			this.seed ^= this.seed << 5;
+			return Math.floorMod(this.seed, bound);
+		}
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(3)
+	public String search(Probe probe) {
+		return this.map.search(probe.next(2 * this.size));
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	public boolean write(Probe probe) {
+		int k = probe.next(2 * this.size);
+		return this.map.insert(k) || this.map.delete(k);
+	}
+
+	// the operations of the benchmark on a map that is safe to share between threads
+	interface Shared {
+		boolean insert(int k);
+
+		boolean delete(int k);
+
+		String search(int k);
+	}
+
+	static Shared create(String implementation) {
+		switch (implementation) {
+		case "ConcurrentAVLTree":
+			ConcurrentAVLTree concurrent = new ConcurrentAVLTree();
+			return new Shared() {
+				public boolean insert(int k) {
+					return concurrent.insert(k, IntMap.VALUE) != -1;
+				}
+
+				public boolean delete(int k) {
+					return concurrent.delete(k) != -1;
+				}
+
+				public String search(int k) {
+					return concurrent.search(k);
+				}
+			};
+		case "ShardedAVLTree":
+			ShardedAVLTree sharded = new ShardedAVLTree();
+			return new Shared() {
+				public boolean insert(int k) {
+					return sharded.insert(k, IntMap.VALUE) != -1;
+				}
+
+				public boolean delete(int k) {
+					return sharded.delete(k) != -1;
+				}
+
+				public String search(int k) {
+					return sharded.search(k);
+				}
+			};
+		case "SynchronizedAVLTree":
+			AVLTree tree = new AVLTree();
+			return new Shared() {
+				public synchronized boolean insert(int k) {
+					return tree.insert(k, IntMap.VALUE) != -1;
+				}
+
+				public synchronized boolean delete(int k) {
+					return tree.delete(k) != -1;
+				}
+
+				public synchronized String search(int k) {
+					return tree.search(k);
+				}
+			};
+		case "ConcurrentSkipListMap":
+			ConcurrentSkipListMap<Integer, String> skipList = new ConcurrentSkipListMap<>();
+			return new Shared() {
+				public boolean insert(int k) {
+					return skipList.putIfAbsent(k, IntMap.VALUE) == null;
+				}
+
+				public boolean delete(int k) {
+					return skipList.remove(k) != null;
+				}
+
+				public String search(int k) {
+					return skipList.get(k);
+				}
+			};
+		default:
+			throw new IllegalArgumentException("unknown implementation " + implementation);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package avltree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * DeleteBenchmark
+ *
+ * Time to delete all size keys of a map in random order, until it is empty.
+ * The map is filled again before every invocation, outside the measured time.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DeleteBenchmark {
+	@Param({"AVLTree", "BlockAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private int[] keys;
+	private IntMap map;
+
+	@Setup(Level.Trial)
+	public void keys() {
+		this.keys = Keys.of(this.size, "random");
+	}
+
+	@Setup(Level.Invocation)
+	public void fill() {
+		this.map = IntMap.filled(this.implementation, this.keys);
+	}
+
+	@Benchmark
+	public int delete() {
+		for (int k : this.keys) {
+			this.map.delete(k);
+		}
+		return this.map.size();
+	}
+}
@@ -0,0 +1,71 @@
+package avltree.bench;
+
+import avltree.DurableAVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * DurableBenchmark
+ *
+ * Sustained insert throughput of DurableAVLTree at different group commit intervals.
+ * Each operation inserts a random key of a range of 2^20, or deletes it if it is already there,
+ * so the tree stays about 2^19 keys and every operation writes a log record.
+ * The log is written to java.io.tmpdir, point it at the disk to measure with -Djava.io.tmpdir.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurableBenchmark {
+	private static final int RANGE = 1 << 20;
+
+	@Param({"0", "100", "1000", "10000"})
+	public long commitMicros;
+
+	private Path directory;
+	private DurableAVLTree tree;
+	private int seed = 1;
+
+	@Setup
+	public void open() throws IOException {
+		this.directory = Files.createTempDirectory("avltree-wal");
+		this.tree = DurableAVLTree.open(this.directory.resolve("snapshot"), this.directory.resolve("log"), this.commitMicros);
+	}
+
+	@TearDown
+	public void close() throws IOException {
+		this.tree.close();
+		Files.deleteIfExists(this.directory.resolve("log"));
+		Files.deleteIfExists(this.directory);
+	}
+
+	@Benchmark
+	public int insert() throws IOException {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 17;
+		this.seed ^= this.seed << 5;
+		int k = this.seed & (RANGE - 1);
+		int result = this.tree.insert(k, IntMap.VALUE);
+		return (result != -1) ? result : this.tree.delete(k);
+	}
+}
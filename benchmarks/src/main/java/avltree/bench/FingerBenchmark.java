@@ -0,0 +1,82 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * FingerBenchmark
+ *
+ * Searches that move forward through an AVLTree of size keys, each a random 1 to gap keys after the previous one,
+ * from the root with AVLTree.search and from the last key with AVLTree.Finger.search.
+ * Appends are measured by InsertBenchmark with sequential and reverse keys.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FingerBenchmark {
+	private static final int PROBES = 1024;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"1", "16", "1024"})
+	public int gap;
+
+	private AVLTree tree;
+	private AVLTree.Finger finger;
+	private int[] probes;
+
+	@Setup
+	public void fill() {
+		int[] keys = Keys.of(this.size, "sequential");
+		String[] values = new String[this.size];
+		Arrays.fill(values, IntMap.VALUE);
+		this.tree = AVLTree.fromSorted(keys, values);
+		this.finger = this.tree.finger();
+		Random random = new Random(42);
+		this.probes = new int[PROBES];
+		int i = random.nextInt(this.size);
+		for (int p = 0; p < PROBES; p++) {
+			i = (i + 1 + random.nextInt(this.gap)) % this.size;
+			this.probes[p] = keys[i];
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void rootSearch(Blackhole blackhole) {
+		for (int k : this.probes) {
+			blackhole.consume(this.tree.search(k));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void fingerSearch(Blackhole blackhole) {
+		for (int k : this.probes) {
+			blackhole.consume(this.finger.search(k));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package avltree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * InsertBenchmark
+ *
+ * Time to insert size keys into an empty map, in sequential, reverse or random order.
+ * Divide by size for the time of one insert.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InsertBenchmark {
+	@Param({"AVLTree", "BlockAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"sequential", "random", "reverse"})
+	public String order;
+
+	private int[] keys;
+
+	@Setup
+	public void keys() {
+		this.keys = Keys.of(this.size, this.order);
+	}
+
+	@Benchmark
+	public IntMap insert() {
+		IntMap map = IntMap.create(this.implementation);
+		for (int k : this.keys) {
+			map.insert(k);
+		}
+		return map;
+	}
+}
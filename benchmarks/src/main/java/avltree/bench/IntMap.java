@@ -0,0 +1,188 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+import avltree.BlockAVLTree;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ *
+ * IntMap
+ *
+ * The operations the benchmarks measure, on AVLTree, BlockAVLTree and on the JDK sorted maps they are compared with.
+ * Each benchmark fork runs one implementation, so the calls stay monomorphic.
+ *
+ */
+abstract class IntMap {
+	static final String VALUE = "v"; // one shared value, so only the maps themselves allocate
+
+	abstract boolean insert(int k);
+
+	abstract boolean delete(int k);
+
+	abstract String search(int k);
+
+	abstract int[] keysToArray();
+
+	// splits the map around x, a key in it, and joins the halves back
+	abstract int splitJoin(int x);
+
+	abstract int size();
+
+	static IntMap create(String implementation) {
+		switch (implementation) {
+		case "AVLTree":
+			return new Tree();
+		case "BlockAVLTree":
+			return new Blocks();
+		case "TreeMap":
+			return new Jdk(new TreeMap<>());
+		case "ConcurrentSkipListMap":
+			return new Jdk(new ConcurrentSkipListMap<>());
+		default:
+			throw new IllegalArgumentException("unknown implementation " + implementation);
+		}
+	}
+
+	static IntMap filled(String implementation, int[] keys) {
+		IntMap map = create(implementation);
+		for (int k : keys) {
+			map.insert(k);
+		}
+		return map;
+	}
+
+	private static final class Tree extends IntMap {
+		private AVLTree tree = new AVLTree();
+
+		@Override
+		boolean insert(int k) {
+			return this.tree.insert(k, VALUE) != -1;
+		}
+
+		@Override
+		boolean delete(int k) {
+			return this.tree.delete(k) != -1;
+		}
+
+		@Override
+		String search(int k) {
+			return this.tree.search(k);
+		}
+
+		@Override
+		int[] keysToArray() {
+			return this.tree.keysToArray();
+		}
+
+		@Override
+		int splitJoin(int x) {
+			AVLTree[] halves = this.tree.split(x);
+			halves[0].join(halves[0].new AVLNode(x, VALUE), halves[1]);
+			this.tree = halves[0];
+			return this.tree.size();
+		}
+
+		@Override
+		int size() {
+			return this.tree.size();
+		}
+	}
+
+	private static final class Blocks extends IntMap {
+		private BlockAVLTree tree = new BlockAVLTree();
+
+		@Override
+		boolean insert(int k) {
+			return this.tree.insert(k, VALUE) != -1;
+		}
+
+		@Override
+		boolean delete(int k) {
+			return this.tree.delete(k) != -1;
+		}
+
+		@Override
+		String search(int k) {
+			return this.tree.search(k);
+		}
+
+		@Override
+		int[] keysToArray() {
+			return this.tree.keysToArray();
+		}
+
+		@Override
+		int splitJoin(int x) {
+			BlockAVLTree[] halves = this.tree.split(x);
+			halves[0].join(x, VALUE, halves[1]);
+			this.tree = halves[0];
+			return this.tree.size();
+		}
+
+		@Override
+		int size() {
+			return this.tree.size();
+		}
+	}
+
+	/**
+	 * private static class Jdk
+	 *
+	 * TreeMap or ConcurrentSkipListMap. They have no split and join,
+	 * the nearest is copying the two sub maps and putting one into the other.
+	 */
+	private static final class Jdk extends IntMap {
+		private NavigableMap<Integer, String> map;
+
+		private Jdk(NavigableMap<Integer, String> map) {
+			this.map = map;
+		}
+
+		@Override
+		boolean insert(int k) {
+			return this.map.putIfAbsent(k, VALUE) == null;
+		}
+
+		@Override
+		boolean delete(int k) {
+			return this.map.remove(k) != null;
+		}
+
+		@Override
+		String search(int k) {
+			return this.map.get(k);
+		}
+
+		@Override
+		int[] keysToArray() {
+			int[] arr = new int[this.map.size()];
+			int i = 0;
+			for (int k : this.map.keySet()) {
+				arr[i++] = k;
+			}
+			return arr;
+		}
+
+		@Override
+		int splitJoin(int x) {
+			NavigableMap<Integer, String> smaller = this.copy(this.map.headMap(x, false));
+			NavigableMap<Integer, String> bigger = this.copy(this.map.tailMap(x, false));
+			smaller.put(x, VALUE);
+			smaller.putAll(bigger);
+			this.map = smaller;
+			return this.map.size();
+		}
+
+		private NavigableMap<Integer, String> copy(NavigableMap<Integer, String> subMap) {
+			return (this.map instanceof TreeMap) ? new TreeMap<>(subMap) : new ConcurrentSkipListMap<>(subMap);
+		}
+
+		@Override
+		int size() {
+			return this.map.size();
+		}
+	}
+}
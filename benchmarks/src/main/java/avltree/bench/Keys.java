@@ -0,0 +1,58 @@
+package avltree.bench;
+
+import java.util.Random;
+
+/**
+ *
+ * Keys
+ *
+ * Key sets of the benchmarks. The keys of a map of size n are the even numbers 0, 2, .., 2(n-1),
+ * so the odd numbers between them are misses.
+ *
+ */
+final class Keys {
+	private static final long SEED = 42;
+
+	private Keys() {
+	}
+
+	// the keys of a map of size n, in the given order: sequential, reverse or random
+	static int[] of(int n, String order) {
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = 2 * i;
+		}
+		switch (order) {
+		case "sequential":
+			return keys;
+		case "reverse":
+			for (int i = 0; i < n / 2; i++) {
+				int tmp = keys[i];
+				keys[i] = keys[n - 1 - i];
+				keys[n - 1 - i] = tmp;
+			}
+			return keys;
+		case "random":
+			Random random = new Random(SEED);
+			for (int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = keys[i];
+				keys[i] = keys[j];
+				keys[j] = tmp;
+			}
+			return keys;
+		default:
+			throw new IllegalArgumentException("unknown key order " + order);
+		}
+	}
+
+	// count random keys of a map of size n, the present ones if hit, else the missing ones
+	static int[] probes(int n, int count, boolean hit) {
+		Random random = new Random(SEED + 1);
+		int[] probes = new int[count];
+		for (int i = 0; i < count; i++) {
+			probes[i] = 2 * random.nextInt(n) + (hit ? 0 : 1);
+		}
+		return probes;
+	}
+}
@@ -0,0 +1,78 @@
+package avltree.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * MapBenchmark
+ *
+ * Reads of a map filled with size keys in random order: search hit / miss,
+ * keysToArray, and splitting around the middle key and joining back.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MapBenchmark {
+	private static final int PROBES = 1024;
+
+	@Param({"AVLTree", "BlockAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+	public String implementation;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private IntMap map;
+	private int[] hits;
+	private int[] misses;
+
+	@Setup
+	public void fill() {
+		this.map = IntMap.filled(this.implementation, Keys.of(this.size, "random"));
+		this.hits = Keys.probes(this.size, PROBES, true);
+		this.misses = Keys.probes(this.size, PROBES, false);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void searchHit(Blackhole blackhole) {
+		for (int k : this.hits) {
+			blackhole.consume(this.map.search(k));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void searchMiss(Blackhole blackhole) {
+		for (int k : this.misses) {
+			blackhole.consume(this.map.search(k));
+		}
+	}
+
+	@Benchmark
+	public int[] keysToArray() {
+		return this.map.keysToArray();
+	}
+
+	@Benchmark
+	public int splitJoin() {
+		return this.map.splitJoin(2 * (this.size / 2));
+	}
+}
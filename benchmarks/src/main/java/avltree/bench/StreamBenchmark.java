@@ -0,0 +1,63 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * StreamBenchmark
+ *
+ * The sum of the keys of an AVLTree of size keys (per whole sum): with keyStream, with keyStream().parallel(),
+ * and by copying them with keysToArray first. The parallel sum uses the common fork-join pool,
+ * so it scales with the cores of the machine.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StreamBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	private AVLTree tree;
+
+	@Setup
+	public void fill() {
+		this.tree = new AVLTree();
+		for (int k : Keys.of(this.size, "random")) {
+			this.tree.insert(k, IntMap.VALUE);
+		}
+	}
+
+	@Benchmark
+	public long keyStream() {
+		return this.tree.keyStream().asLongStream().sum();
+	}
+
+	@Benchmark
+	public long parallelKeyStream() {
+		return this.tree.keyStream().parallel().asLongStream().sum();
+	}
+
+	@Benchmark
+	public long keysToArray() {
+		return Arrays.stream(this.tree.keysToArray()).asLongStream().sum();
+	}
+}
@@ -0,0 +1,67 @@
+package avltree.bench;
+
+import avltree.AVLTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * WindowBenchmark
+ *
+ * A sliding window of size keys in an AVLTree: each step deletes the oldest key and inserts a new largest one,
+ * with the node pool off (capacity 0) and on. Run with -prof gc, gc.alloc.rate.norm is the bytes allocated per step.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WindowBenchmark {
+	private static final int STEPS = 1024;
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"0", "64"})
+	public int pool;
+
+	private AVLTree tree;
+	private int oldest;
+
+	@Setup
+	public void fill() {
+		int[] keys = Keys.of(this.size, "sequential");
+		String[] values = new String[this.size];
+		Arrays.fill(values, IntMap.VALUE);
+		this.tree = AVLTree.fromSorted(keys, values);
+		this.tree.setNodePoolCapacity(this.pool);
+		this.oldest = 0;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STEPS)
+	public int slide() {
+		for (int i = 0; i < STEPS; i++) {
+			this.tree.delete(this.oldest);
+			this.tree.insert(this.oldest + 2 * this.size, IntMap.VALUE);
+			this.oldest += 2;
+		}
+		return this.tree.size();
+	}
+}
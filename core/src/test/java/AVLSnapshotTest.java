@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AVLSnapshotTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	void snapshotRoundTrip() throws IOException {
+		Random random = new Random(6);
+		for (int size : new int[] {0, 1, 1000, 50000}) {
+			TreeMap<Integer, String> expected = Trees.randomMap(random, size, 1 << 30, "é");
+			if (size > 0) {
+				expected.put(expected.firstKey(), null);
+				expected.put(Integer.MIN_VALUE, "");
+			}
+			Path path = this.dir.resolve("round.snapshot");
+			AVLTree.fromSorted(Trees.keys(expected), Trees.values(expected)).writeSnapshot(path);
+			AVLTree loaded = AVLTree.load(path);
+			loaded.checkInvariants();
+			Trees.assertItems(expected, loaded.keysToArray(), loaded.infoToArray());
+			Trees.assertEdges(expected, loaded.min(), loaded.max());
+		}
+	}
+
+	@Test
+	void damagedSnapshotIsRejected() throws IOException {
+		Path path = this.dir.resolve("damaged.snapshot");
+		AVLTree.fromSorted(new int[] {1, 2, 3}, new String[] {"a", "b", "c"}).writeSnapshot(path);
+		byte[] bytes = Files.readAllBytes(path);
+		bytes[14] ^= 1;
+		Files.write(path, bytes);
+		assertThrows(IOException.class, () -> AVLTree.load(path));
+		Files.write(path, new byte[] {1, 2, 3});
+		assertThrows(IOException.class, () -> AVLTree.load(path));
+	}
+}
@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// core/pom.xml runs this class twice, without and with -Davltree.metrics=true
+class AVLTreeMetricsTest {
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	private AVLTreeMetricsMXBean metrics;
+
+	@BeforeEach
+	void reset() throws JMException {
+		if (AVLTreeMetrics.enabled()) {
+			this.metrics = JMX.newMXBeanProxy(this.server, new ObjectName("avltree:type=AVLTreeMetrics"), AVLTreeMetricsMXBean.class);
+			this.metrics.reset();
+		}
+	}
+
+	@Test
+	void countersStayUntouchedWithoutTheFlag() throws JMException {
+		assumeFalse(AVLTreeMetrics.enabled());
+		AVLTree tree = new AVLTree();
+		for (int k = 0; k < 1000; k++) {
+			tree.insert(k, "v" + k);
+			tree.search(k);
+		}
+		for (int k = 0; k < 1000; k += 2) {
+			tree.delete(k);
+		}
+		assertFalse(this.server.isRegistered(new ObjectName("avltree:type=AVLTreeMetrics")));
+		assertEquals(0, AVLTreeMetrics.LEFT_ROTATIONS.sum());
+		assertEquals(0, AVLTreeMetrics.RIGHT_ROTATIONS.sum());
+		assertEquals(0, AVLTreeMetrics.DOUBLE_ROTATIONS.sum());
+		assertEquals(0, AVLTreeMetrics.PROMOTIONS.sum());
+		assertEquals(0, AVLTreeMetrics.DEMOTIONS.sum());
+		assertEquals(0, AVLTreeMetrics.REBALANCES.sum());
+	}
+
+	@Test
+	void rotationsOfThreeInserts() {
+		assumeTrue(AVLTreeMetrics.enabled());
+		insertInOrder(1, 2, 3);
+		assertRotations(1, 0, 0);
+		insertInOrder(3, 2, 1);
+		assertRotations(1, 1, 0);
+		insertInOrder(1, 3, 2);
+		assertRotations(2, 2, 1);
+		insertInOrder(3, 1, 2);
+		assertRotations(3, 3, 2);
+		assertEquals(12, this.metrics.getInserts());
+	}
+
+	@Test
+	void countersAddUpTheWorkOfInsertDeleteAndSearch() {
+		assumeTrue(AVLTreeMetrics.enabled());
+		AVLTree tree = new AVLTree();
+		long rebalanced = 0;
+		for (int k = 0; k < 1000; k++) {
+			rebalanced += tree.insert((k * 7919) % 1000, "v" + k);
+		}
+		assertEquals(-1, tree.insert(0, "again"));
+		for (int k = 0; k < 1000; k++) {
+			tree.search(k);
+		}
+		for (int k = 0; k < 1000; k += 2) {
+			rebalanced += tree.delete(k);
+		}
+		assertEquals(-1, tree.delete(0));
+		assertEquals(1001, this.metrics.getInserts());
+		assertEquals(501, this.metrics.getDeletes());
+		assertEquals(1000, this.metrics.getSearches());
+		assertEquals(rebalanced, this.metrics.getRebalanceOperations());
+		assertEquals(1001, Arrays.stream(this.metrics.getInsertLatencyHistogram()).sum());
+		assertEquals(this.metrics.getLeftRotations(), AVLTreeMetrics.LEFT_ROTATIONS.sum());
+		assertTrue(this.metrics.getDemotions() > 0);
+		assertTrue(this.metrics.getSearchLatencyP99() > 0);
+		this.metrics.reset();
+		assertEquals(0, this.metrics.getInserts());
+		assertEquals(0, this.metrics.getRebalanceOperations());
+	}
+
+	// a batch records neither insert nor delete samples, however small it is
+	@Test
+	void batchesAreNotCountedAsInsertsOrDeletes() {
+		assumeTrue(AVLTreeMetrics.enabled());
+		AVLTree tree = new AVLTree();
+		for (int n : new int[] {3, 50, 5000}) {
+			int[] keys = new int[n];
+			String[] values = new String[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = 2 * i;
+				values[i] = "v" + i;
+			}
+			tree.insertAll(keys, values, null);
+			tree.deleteAll(keys, null);
+		}
+		assertTrue(tree.empty());
+		assertEquals(0, this.metrics.getInserts());
+		assertEquals(0, this.metrics.getDeletes());
+		assertEquals(0, this.metrics.getRebalanceOperations());
+	}
+
+	// set operations join their halves with concat, which takes its middle item out without a delete sample
+	@Test
+	void setOperationsAreNotCountedAsDeletes() {
+		assumeTrue(AVLTreeMetrics.enabled());
+		for (int step = 0; step < 3; step++) {
+			AVLTree tree = evens(0, 20000);
+			tree.union(evens(5000, 30000));
+			tree.intersection(evens(10000, 30000));
+			tree.difference(evens(15000, 20000));
+			assertEquals(7500, tree.size());
+		}
+		assertEquals(0, this.metrics.getInserts());
+		assertEquals(0, this.metrics.getDeletes());
+	}
+
+	// returns a tree of the even keys in [from, to)
+	private static AVLTree evens(int from, int to) {
+		int[] keys = IntStream.range(from / 2, to / 2).map(i -> 2 * i).toArray();
+		return AVLTree.fromSorted(keys, new String[keys.length]);
+	}
+
+	@Test
+	void registeredTreeShowsItsSizeAndHeight() throws JMException {
+		AVLTree tree = new AVLTree();
+		ObjectName name = AVLTreeMetrics.register("test", tree);
+		try {
+			AVLTreeShapeMXBean shape = JMX.newMXBeanProxy(this.server, name, AVLTreeShapeMXBean.class);
+			assertEquals(0, shape.getSize());
+			assertEquals(-1, shape.getHeight());
+			for (int k = 0; k < 1023; k++) {
+				tree.insert(k, "v" + k);
+			}
+			assertEquals(1023, shape.getSize());
+			assertEquals(9, shape.getHeight());
+		} finally {
+			this.server.unregisterMBean(name);
+		}
+	}
+
+	private static void insertInOrder(int... keys) {
+		AVLTree tree = new AVLTree();
+		for (int k : keys) {
+			tree.insert(k, "v" + k);
+		}
+	}
+
+	private void assertRotations(long left, long right, long doubles) {
+		assertEquals(left, this.metrics.getLeftRotations(), "left rotations");
+		assertEquals(right, this.metrics.getRightRotations(), "right rotations");
+		assertEquals(doubles, this.metrics.getDoubleRotations(), "double rotations");
+	}
+}
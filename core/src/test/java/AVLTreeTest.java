@@ -0,0 +1,631 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class AVLTreeTest {
+
+	// applies a random insert or delete of a key in [-10, range - 10) to tree and expected, and checks the result
+	private static void randomStep(AVLTree tree, TreeMap<Integer, String> expected, Random random, int range, int step) {
+		int k = random.nextInt(range) - 10; // some of them -1, the key of a virtual node
+		if (random.nextInt(5) < 3) {
+			int cnt = tree.insert(k, "v" + step);
+			assertEquals(expected.containsKey(k), cnt == -1, "insert " + k);
+			expected.putIfAbsent(k, "v" + step);
+		} else {
+			int cnt = tree.delete(k);
+			assertEquals(!expected.containsKey(k), cnt == -1, "delete " + k);
+			expected.remove(k);
+		}
+		assertEquals(expected.get(k), tree.search(k));
+	}
+
+	// splits tree at one of its keys, checks the halves and joins them back in either order. returns the joined tree
+	private static AVLTree splitAndJoin(AVLTree tree, TreeMap<Integer, String> expected, Random random) {
+		int x = Trees.randomKey(expected, random);
+		String value = tree.search(x);
+		AVLTree[] halves = tree.split(x);
+		halves[0].checkInvariants();
+		halves[1].checkInvariants();
+		Trees.assertItems(new TreeMap<>(expected.headMap(x)), halves[0].keysToArray(), halves[0].infoToArray());
+		Trees.assertItems(new TreeMap<>(expected.tailMap(x, false)), halves[1].keysToArray(), halves[1].infoToArray());
+		AVLTree joined = random.nextBoolean() ? halves[0] : halves[1];
+		AVLTree other = (joined == halves[0]) ? halves[1] : halves[0];
+		joined.join(joined.new AVLNode(x, value), other);
+		return joined;
+	}
+
+	private static AVLTree treeOf(TreeMap<Integer, String> map) {
+		return AVLTree.fromSorted(Trees.keys(map), Trees.values(map));
+	}
+
+	// the min / max nodes of a split half used to be detached copies, so deleting them later went wrong
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(18);
+		AVLTree tree = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			if (step % 50 == 49 && !expected.isEmpty()) {
+				tree = splitAndJoin(tree, expected, random);
+			} else {
+				randomStep(tree, expected, random, 2000, step);
+			}
+			tree.checkInvariants();
+			assertEquals(expected.size(), tree.size());
+			assertEquals(expected.isEmpty(), tree.empty());
+			Trees.assertEdges(expected, tree.min(), tree.max());
+		}
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	@Test
+	void emptyTree() {
+		AVLTree tree = new AVLTree();
+		assertTrue(tree.empty());
+		assertEquals(0, tree.size());
+		assertNull(tree.min());
+		assertEquals(-1, tree.delete(1));
+		tree.insert(1, "a");
+		tree.delete(1);
+		assertEquals(0, tree.size());
+		assertNull(tree.search(1));
+	}
+
+	@Test
+	void splitAndJoinAtEveryKeyOfSmallTrees() {
+		for (int n = 1; n <= 40; n++) {
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (int i = 0; i < n; i++) {
+				expected.put(2 * i, "v" + i);
+			}
+			for (int x : expected.keySet()) {
+				AVLTree[] halves = treeOf(expected).split(x);
+				halves[0].checkInvariants();
+				halves[1].checkInvariants();
+				Trees.assertItems(new TreeMap<>(expected.headMap(x)), halves[0].keysToArray(), halves[0].infoToArray());
+				Trees.assertItems(new TreeMap<>(expected.tailMap(x, false)), halves[1].keysToArray(), halves[1].infoToArray());
+				Trees.assertEdges(new TreeMap<>(expected.headMap(x)), halves[0].min(), halves[0].max());
+				Trees.assertEdges(new TreeMap<>(expected.tailMap(x, false)), halves[1].min(), halves[1].max());
+				halves[0].join(halves[0].new AVLNode(x, expected.get(x)), halves[1]);
+				halves[0].checkInvariants();
+				Trees.assertItems(expected, halves[0].keysToArray(), halves[0].infoToArray());
+				Trees.assertEdges(expected, halves[0].min(), halves[0].max());
+			}
+		}
+	}
+
+	@Test
+	void joinOfTreesOfVeryDifferentRanks() {
+		TreeMap<Integer, String> small = new TreeMap<>(Map.of(-5, "a", -3, "b"));
+		TreeMap<Integer, String> large = Trees.randomMap(new Random(1), 5000, 100000, "v");
+		AVLTree tree = treeOf(large);
+		tree.join(tree.new AVLNode(-1, "x"), treeOf(small));
+		tree.checkInvariants();
+		TreeMap<Integer, String> expected = new TreeMap<>(large);
+		expected.putAll(small);
+		expected.put(-1, "x");
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		AVLTree empty = new AVLTree();
+		empty.join(empty.new AVLNode(200000, "y"), tree);
+		empty.checkInvariants();
+		expected.put(200000, "y");
+		Trees.assertItems(expected, empty.keysToArray(), empty.infoToArray());
+		Trees.assertEdges(expected, empty.min(), empty.max());
+	}
+
+	@Test
+	void exportsWriteIntoCallerArrays() {
+		TreeMap<Integer, String> expected = Trees.randomMap(new Random(4), 3000, 10000, "v");
+		AVLTree tree = treeOf(expected);
+		int n = expected.size();
+		int[] keys = new int[n + 10];
+		assertEquals(n, tree.keysToArray(keys, 10, n));
+		assertArrayEquals(Trees.keys(expected), Arrays.copyOfRange(keys, 10, n + 10));
+		String[] values = new String[n + 10];
+		assertEquals(n, tree.infoToArray(values, 5, n + 5));
+		assertArrayEquals(Trees.values(expected), Arrays.copyOfRange(values, 5, n + 5));
+		assertEquals(7, tree.keysToArray(keys, 0, 7));
+		assertArrayEquals(Arrays.copyOf(Trees.keys(expected), 7), Arrays.copyOf(keys, 7));
+		assertThrows(IndexOutOfBoundsException.class, () -> tree.keysToArray(new int[3], 1, 3));
+		IntBuffer buffer = IntBuffer.allocate(100);
+		assertEquals(100, tree.keysToBuffer(buffer));
+		assertArrayEquals(Arrays.copyOf(Trees.keys(expected), 100), buffer.array());
+		int[] entryKeys = new int[n];
+		String[] entryValues = new String[n + 1];
+		assertEquals(n, tree.entriesToArrays(entryKeys, entryValues));
+		Trees.assertItems(expected, entryKeys, Arrays.copyOf(entryValues, n));
+		assertEquals(0, new AVLTree().keysToBuffer(buffer));
+	}
+
+	@Test
+	void rangeScansAndCursorsMatchTreeMap() {
+		Random random = new Random(24);
+		TreeMap<Integer, String> expected = Trees.randomMap(random, 20000, 100000, "v");
+		AVLTree tree = treeOf(expected);
+		for (int i = 0; i < 500; i++) {
+			int lo = random.nextInt(110000) - 5000;
+			int hi = lo + random.nextInt(5000);
+			List<Integer> seen = new ArrayList<>();
+			tree.forEachInRange(lo, hi, (key, value) -> {
+				assertEquals(expected.get(key), value);
+				seen.add(key);
+			});
+			assertEquals(new ArrayList<>(expected.subMap(lo, true, hi, true).keySet()), seen);
+			AVLTree.Cursor cursor = tree.cursor();
+			Integer ceiling = expected.ceilingKey(lo);
+			assertEquals(ceiling != null, cursor.seek(lo));
+			for (Integer key = ceiling; key != null && key <= hi; key = expected.higherKey(key)) {
+				assertEquals((int) key, cursor.key());
+				assertEquals(expected.get(key), cursor.value());
+				cursor.next();
+			}
+		}
+		AVLTree.Cursor cursor = tree.cursor();
+		assertTrue(cursor.last());
+		for (Integer key : expected.descendingKeySet()) {
+			assertEquals((int) key, cursor.key());
+			cursor.prev();
+		}
+		assertFalse(cursor.valid());
+		assertThrows(NoSuchElementException.class, cursor::key);
+		assertTrue(cursor.first());
+		assertEquals((int) expected.firstKey(), cursor.key());
+		assertFalse(new AVLTree().cursor().first());
+	}
+
+	// subtree sizes are kept by insert, delete, split and join, so the tree is changed between queries
+	@Test
+	void orderStatisticsMatchTreeMap() {
+		Random random = new Random(6);
+		AVLTree tree = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 5000; step++) {
+			if (step % 100 == 99 && !expected.isEmpty()) {
+				tree = splitAndJoin(tree, expected, random);
+			} else {
+				randomStep(tree, expected, random, 3000, step);
+			}
+			if (expected.isEmpty()) {
+				continue;
+			}
+			int index = random.nextInt(expected.size());
+			int key = expected.keySet().toArray(new Integer[0])[index];
+			assertEquals(key, tree.selectKey(index));
+			assertEquals(expected.get(key), tree.select(index));
+			int lo = random.nextInt(3200) - 100;
+			int hi = lo + random.nextInt(500) - 50;
+			assertEquals(expected.headMap(lo).size(), tree.rank(lo));
+			assertEquals((lo > hi) ? 0 : expected.subMap(lo, true, hi, true).size(), tree.countInRange(lo, hi), "countInRange(" + lo + ", " + hi + ")");
+		}
+		assertEquals(null, tree.select(-1));
+		assertEquals(null, tree.select(tree.size()));
+		AVLTree last = tree;
+		assertThrows(IndexOutOfBoundsException.class, () -> last.selectKey(last.size()));
+		assertEquals(tree.size(), tree.countInRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertEquals(0, tree.rank(Integer.MIN_VALUE));
+		assertEquals(0, new AVLTree().countInRange(0, 10));
+	}
+
+	@Test
+	void fromSortedAndBuilderMakeValidTrees() {
+		for (int n = 0; n < 200; n++) {
+			AVLTree.Builder builder = AVLTree.builder();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (int i = 0; i < n; i++) {
+				builder.add(3 * i - 100, "v" + i);
+				expected.put(3 * i - 100, "v" + i);
+			}
+			AVLTree built = builder.build();
+			built.checkInvariants();
+			Trees.assertItems(expected, built.keysToArray(), built.infoToArray());
+			Trees.assertEdges(expected, built.min(), built.max());
+			AVLTree sorted = treeOf(expected);
+			sorted.checkInvariants();
+			Trees.assertItems(expected, sorted.keysToArray(), sorted.infoToArray());
+			// a built tree takes further changes like any other
+			sorted.insert(1000, "x");
+			sorted.delete(-100);
+			expected.put(1000, "x");
+			expected.remove(-100);
+			sorted.checkInvariants();
+			Trees.assertItems(expected, sorted.keysToArray(), sorted.infoToArray());
+			Trees.assertEdges(expected, sorted.min(), sorted.max());
+		}
+		assertThrows(IllegalArgumentException.class, () -> AVLTree.builder().add(2, "a").add(2, "b"));
+		assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(new int[] {2, 1}, new String[] {"a", "b"}));
+		assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(new int[] {1}, new String[0]));
+	}
+
+	@Test
+	void insertAllAndDeleteAllMatchTreeMap() {
+		Random random = new Random(8);
+		AVLTree tree = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int round = 0; round < 400; round++) {
+			int[] batch = Trees.randomBatch(random, 5000, 300);
+			if (random.nextBoolean()) {
+				String[] values = new String[batch.length];
+				Arrays.setAll(values, i -> "r" + batch[i]);
+				boolean[] inserted = new boolean[batch.length];
+				Arrays.fill(inserted, true);
+				tree.insertAll(batch, values, inserted);
+				for (int i = 0; i < batch.length; i++) {
+					assertEquals(!expected.containsKey(batch[i]), inserted[i], "insertAll " + batch[i]);
+					expected.putIfAbsent(batch[i], values[i]);
+				}
+			} else {
+				boolean[] deleted = new boolean[batch.length];
+				tree.deleteAll(batch, deleted);
+				for (int i = 0; i < batch.length; i++) {
+					assertEquals(expected.remove(batch[i]) != null, deleted[i], "deleteAll " + batch[i]);
+				}
+			}
+			tree.checkInvariants();
+			Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+			Trees.assertEdges(expected, tree.min(), tree.max());
+		}
+	}
+
+	@Test
+	void insertAllRejectsKeysOutOfOrder() {
+		AVLTree tree = new AVLTree();
+		assertThrows(IllegalArgumentException.class, () -> tree.insertAll(new int[] {1, 1}, new String[] {"a", "b"}, null));
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteAll(new int[] {2, 1}, null));
+	}
+
+	@Test
+	void setOperationsMatchTreeMap() {
+		Random random = new Random(9);
+		for (int round = 0; round < 45; round++) {
+			// every fifth round is large enough to be split between threads
+			int size = (round % 5 == 0) ? 30000 : random.nextInt(600);
+			TreeMap<Integer, String> a = Trees.randomMap(random, size, 2 * size + 10, "a");
+			TreeMap<Integer, String> b = Trees.randomMap(random, random.nextInt(2 * size + 1), 2 * size + 10, "b");
+			AVLTree t1 = treeOf(a);
+			AVLTree t2 = treeOf(b);
+			TreeMap<Integer, String> expected = new TreeMap<>(a);
+			switch (round % 3) {
+			case 0:
+				b.forEach(expected::putIfAbsent);
+				t1.union(t2);
+				break;
+			case 1:
+				expected.keySet().retainAll(b.keySet());
+				t1.intersection(t2);
+				break;
+			default:
+				expected.keySet().removeAll(b.keySet());
+				t1.difference(t2);
+				break;
+			}
+			t1.checkInvariants();
+			Trees.assertItems(expected, t1.keysToArray(), t1.infoToArray());
+			Trees.assertEdges(expected, t1.min(), t1.max());
+		}
+	}
+
+	@Test
+	void checkInvariantsFindsABrokenTree() {
+		AVLTree tree = treeOf(Trees.randomMap(new Random(2), 100, 1000, "v"));
+		tree.checkInvariants();
+		AVLTree.IAVLNode root = tree.getRoot();
+		root.setSize(root.getSize() + 1);
+		assertThrows(IllegalStateException.class, tree::checkInvariants);
+		root.setSize(root.getSize() - 1);
+		root.getLeft().setRank(root.getLeft().getRank() + 1);
+		assertThrows(IllegalStateException.class, tree::checkInvariants);
+		root.getLeft().setRank(root.getLeft().getRank() - 1);
+		tree.checkInvariants();
+		tree.getRoot().getRight().setParent(null);
+		assertThrows(IllegalStateException.class, tree::checkInvariants);
+	}
+
+	// insert and delete fix sizes and ranks in one pass up from the change, in sequential runs as well
+	@Test
+	void longSequentialRunsKeepTheTreeValid() {
+		AVLTree tree = new AVLTree();
+		for (int k = 0; k < 100000; k++) {
+			tree.insert(k, "v" + k);
+		}
+		tree.checkInvariants();
+		assertEquals(100000, tree.size());
+		for (int k = 99999; k >= 0; k -= 3) {
+			tree.delete(k);
+		}
+		tree.checkInvariants();
+		for (int k = 0; k < 100000; k++) {
+			tree.delete(k);
+		}
+		tree.checkInvariants();
+		assertTrue(tree.empty());
+	}
+
+	@Test
+	void fingerMatchesTreeMap() {
+		Random random = new Random(19);
+		AVLTree tree = new AVLTree();
+		AVLTree.Finger finger = tree.finger();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int k = 0;
+		for (int step = 0; step < 20000; step++) {
+			k = Math.floorMod(k + random.nextInt(41) - 20, 3000); // nearby keys, as fingers are meant for
+			switch (random.nextInt(6)) {
+			case 0:
+			case 1:
+				assertEquals(expected.get(k), finger.search(k));
+				break;
+			case 2:
+			case 3:
+				assertEquals(expected.containsKey(k), finger.insert(k, "v" + step) == -1);
+				expected.putIfAbsent(k, "v" + step);
+				break;
+			case 4:
+				tree.delete(k);
+				expected.remove(k);
+				break;
+			default:
+				int[] batch = Trees.randomBatch(random, 3000, 20);
+				tree.deleteAll(batch, null);
+				for (int key : batch) {
+					expected.remove(key);
+				}
+				break;
+			}
+			tree.checkInvariants();
+		}
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	@Test
+	void appendsAtEitherEndMatchTreeMap() {
+		AVLTree tree = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int i = 0; i < 5000; i++) {
+			int k = (i % 2 == 0) ? i : -i; // a new max, then a new min
+			assertEquals(!expected.containsKey(k), tree.insert(k, "v" + k) != -1);
+			expected.putIfAbsent(k, "v" + k);
+			assertEquals(-1, tree.insert(k, "again"));
+			if (i % 100 == 0) {
+				tree.checkInvariants();
+				Trees.assertEdges(expected, tree.min(), tree.max());
+			}
+		}
+		tree.checkInvariants();
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	// an item's measure for the min, max, first and last monoids, not monotone in the key
+	private static long measure(int key) {
+		return Math.floorMod(key * 7919L, 1009);
+	}
+
+	// combines the measures of the items of expected with lo <= key <= hi in key order
+	private static long expectedAggregate(TreeMap<Integer, String> expected, int lo, int hi, long identity, LongBinaryOperator combine, IntToLongFunction measure) {
+		long result = identity;
+		if (lo <= hi) {
+			for (int key : expected.subMap(lo, true, hi, true).keySet()) {
+				result = combine.applyAsLong(result, measure.applyAsLong(key));
+			}
+		}
+		return result;
+	}
+
+	// sum and count are commutative, min and max also idempotent, first and last depend on the order items are combined in
+	@Test
+	void aggregateMatchesTheRangeForEveryKindOfMonoid() {
+		LongBinaryOperator first = (left, right) -> (left == Long.MIN_VALUE) ? right : left;
+		LongBinaryOperator last = (left, right) -> (right == Long.MIN_VALUE) ? left : right;
+		LongBinaryOperator sum = (left, right) -> left + right;
+		Object[][] monoids = {
+			{AVLTree.Augmentation.sum((key, value) -> key), 0L, sum, (IntToLongFunction) key -> key},
+			{AVLTree.Augmentation.count(), 0L, sum, (IntToLongFunction) key -> 1},
+			{AVLTree.Augmentation.min((key, value) -> measure(key)), Long.MAX_VALUE, (LongBinaryOperator) Math::min, (IntToLongFunction) AVLTreeTest::measure},
+			{AVLTree.Augmentation.max((key, value) -> measure(key)), Long.MIN_VALUE, (LongBinaryOperator) Math::max, (IntToLongFunction) AVLTreeTest::measure},
+			{AVLTree.Augmentation.of(Long.MIN_VALUE, (key, value) -> measure(key), first), Long.MIN_VALUE, first, (IntToLongFunction) AVLTreeTest::measure},
+			{AVLTree.Augmentation.of(Long.MIN_VALUE, (key, value) -> measure(key), last), Long.MIN_VALUE, last, (IntToLongFunction) AVLTreeTest::measure},
+		};
+		Random random = new Random(11);
+		for (Object[] monoid : monoids) {
+			AVLTree.Augmentation augmentation = (AVLTree.Augmentation) monoid[0];
+			long identity = (Long) monoid[1];
+			LongBinaryOperator combine = (LongBinaryOperator) monoid[2];
+			IntToLongFunction measure = (IntToLongFunction) monoid[3];
+			AVLTree tree = new AVLTree(augmentation);
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			assertEquals(identity, tree.aggregate(0, 1000));
+			for (int step = 0; step < 4000; step++) {
+				if (step % 100 == 99 && !expected.isEmpty()) {
+					tree = splitAndJoin(tree, expected, random);
+				} else if (step % 250 == 0) {
+					int[] batch = Trees.randomBatch(random, 1000, 30);
+					tree.deleteAll(batch, null);
+					for (int key : batch) {
+						expected.remove(key);
+					}
+				} else {
+					randomStep(tree, expected, random, 1000, step);
+				}
+				tree.checkInvariants();
+				int lo = random.nextInt(1100) - 60;
+				int hi = lo + random.nextInt(300) - 20; // sometimes lo > hi
+				assertEquals(expectedAggregate(expected, lo, hi, identity, combine, measure), tree.aggregate(lo, hi), "aggregate(" + lo + ", " + hi + ")");
+			}
+			assertEquals(expectedAggregate(expected, Integer.MIN_VALUE, Integer.MAX_VALUE, identity, combine, measure), tree.aggregate(Integer.MIN_VALUE, Integer.MAX_VALUE));
+			assertEquals(identity, tree.aggregate(5000, 6000)); // above every key
+			assertEquals(identity, tree.aggregate(7, 6));
+		}
+		assertThrows(IllegalStateException.class, () -> new AVLTree().aggregate(0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new AVLTree().union(new AVLTree(AVLTree.Augmentation.count())));
+	}
+
+	@Test
+	void cacheNeverReturnsInfoTheTreeDoesNotHave() {
+		Random random = new Random(22);
+		AVLTree tree = new AVLTree();
+		tree.setCacheCapacity(64);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		long hits = 0; // of the trees replaced by split and join, which have caches of their own
+		for (int step = 0; step < 20000; step++) {
+			int k = random.nextInt(100); // hot keys, searched often enough to be cached
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 100 == 99 && !expected.isEmpty()) {
+				hits += tree.cacheHits();
+				tree = splitAndJoin(tree, expected, random);
+			} else if (step % 300 == 0) {
+				int[] batch = Trees.randomBatch(random, 1000, 50);
+				tree.deleteAll(batch, null);
+				for (int key : batch) {
+					expected.remove(key);
+				}
+			} else if (step % 400 == 0) {
+				TreeMap<Integer, String> other = Trees.randomMap(random, 50, 1000, "o");
+				if (step % 800 == 0) {
+					tree.difference(treeOf(other));
+					expected.keySet().removeAll(other.keySet());
+				} else {
+					tree.union(treeOf(other));
+					other.forEach(expected::putIfAbsent);
+				}
+			} else {
+				randomStep(tree, expected, random, 1000, step);
+			}
+			tree.checkInvariants();
+		}
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+		assertTrue(hits + tree.cacheHits() > 0);
+	}
+
+	// the doorkeeper lets a key in on its second search, so each hot key misses twice
+	@Test
+	void cacheCountsHitsAndMisses() {
+		TreeMap<Integer, String> expected = Trees.randomMap(new Random(3), 1000, 10000, "v");
+		AVLTree tree = treeOf(expected);
+		assertEquals(0, tree.cacheHits());
+		tree.setCacheCapacity(16);
+		int[] hot = Arrays.copyOf(Trees.keys(expected), 8);
+		for (int round = 0; round < 10; round++) {
+			for (int k : hot) {
+				assertEquals(expected.get(k), tree.search(k));
+			}
+		}
+		assertEquals(16, tree.cacheMisses());
+		assertEquals(64, tree.cacheHits());
+		tree.setCacheCapacity(0);
+		assertEquals(0, tree.cacheHits());
+		assertThrows(IllegalArgumentException.class, () -> tree.setCacheCapacity(-1));
+	}
+
+	@Test
+	void nodePoolKeepsTheTreeValid() {
+		Random random = new Random(23);
+		AVLTree tree = new AVLTree();
+		tree.setNodePoolCapacity(32);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			if (step % 200 == 199 && !expected.isEmpty()) {
+				tree = splitAndJoin(tree, expected, random);
+			} else if (step % 500 == 0) {
+				tree.trim();
+			} else if (step % 777 == 0) {
+				tree.setNodePoolCapacity(random.nextInt(64));
+			} else {
+				randomStep(tree, expected, random, 500, step);
+			}
+			tree.checkInvariants();
+		}
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+		assertThrows(IllegalArgumentException.class, () -> new AVLTree().setNodePoolCapacity(-1));
+	}
+
+	// the spliterators split by rank, so both halves of a split know their exact size
+	@Test
+	void streamsAndSpliteratorsMatchTreeMap() {
+		Random random = new Random(24);
+		TreeMap<Integer, String> expected = Trees.randomMap(random, 20000, 100000, "v");
+		AVLTree tree = treeOf(expected);
+		assertArrayEquals(Trees.keys(expected), tree.keyStream().toArray());
+		assertEquals(expected.keySet().stream().mapToLong(Integer::longValue).sum(), tree.keyStream().parallel().asLongStream().sum());
+		assertEquals(expected, tree.entryStream().parallel().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (x, y) -> x, TreeMap::new)));
+		Spliterator.OfInt high = tree.keySpliterator();
+		assertEquals(expected.size(), high.estimateSize());
+		assertTrue(high.tryAdvance((int key) -> assertEquals((int) expected.firstKey(), key)));
+		Spliterator.OfInt low = high.trySplit();
+		assertEquals(expected.size() - 1, low.estimateSize() + high.estimateSize());
+		List<Integer> seen = new ArrayList<>();
+		low.forEachRemaining((int key) -> seen.add(key));
+		high.forEachRemaining((int key) -> seen.add(key));
+		assertEquals(new ArrayList<>(expected.tailMap(expected.firstKey(), false).keySet()), seen);
+		int[] keys = new int[expected.size()];
+		String[] values = new String[expected.size()];
+		assertEquals(expected.size(), tree.entriesToArrays(keys, values));
+		Trees.assertItems(expected, keys, values);
+		assertEquals(10, tree.entriesToArrays(new int[10], values));
+		assertEquals(0, new AVLTree().keyStream().count());
+		assertNull(new AVLTree().keySpliterator().trySplit());
+	}
+
+	@Test
+	void buildKeepsTheLastInfoOfARepeatedKey() {
+		Random random = new Random(25);
+		for (int n : new int[] {0, 1, 2, 3, 100, 30000}) {
+			int[] keys = new int[n];
+			String[] values = new String[n];
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (int i = 0; i < n; i++) {
+				keys[i] = random.nextInt(2 * n + 1) - n;
+				values[i] = "v" + i;
+				expected.put(keys[i], values[i]);
+			}
+			AVLTree tree = AVLTree.build(keys, values);
+			tree.checkInvariants();
+			Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+		}
+		AVLTree edges = AVLTree.build(new int[] {Integer.MAX_VALUE, 0, Integer.MIN_VALUE, -1}, new String[] {"max", "zero", "min", "minus"});
+		edges.checkInvariants();
+		assertArrayEquals(new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}, edges.keysToArray());
+		assertArrayEquals(new String[] {"min", "minus", "zero", "max"}, edges.infoToArray());
+	}
+
+	// t's nodes move into the tree on a join, and a rotation at t's root can take the left spine of t above it.
+	// a finger left there must start over from t's root instead of climbing into the tree
+	@Test
+	void fingerOfATreeJoinedInStartsOver() {
+		Random random = new Random(19);
+		for (int trial = 0; trial < 1000; trial++) {
+			AVLTree tree = new AVLTree();
+			for (int i = random.nextInt(20); i > 0; i--) {
+				tree.insert(random.nextInt(1000), "v");
+			}
+			AVLTree t = new AVLTree();
+			for (int i = 1 + random.nextInt(200); i > 0; i--) {
+				t.insert(2000 + random.nextInt(1000), "t");
+			}
+			AVLTree.Finger finger = t.finger();
+			finger.search(t.keysToArray()[0]);
+			tree.join(tree.new AVLNode(1500, "x"), t);
+			tree.checkInvariants();
+			for (int k = 0; k < 3200; k += 7) {
+				assertEquals(t.search(k), finger.search(k), "search(" + k + ")");
+			}
+		}
+	}
+}
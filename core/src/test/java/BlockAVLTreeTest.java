@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class BlockAVLTreeTest {
+
+	private static BlockAVLTree treeOf(TreeMap<Integer, String> map) {
+		BlockAVLTree tree = new BlockAVLTree();
+		map.forEach(tree::insert);
+		return tree;
+	}
+
+	private static void assertMatches(TreeMap<Integer, String> expected, BlockAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	// phases that grow, churn and shrink the tree, so blocks are split, refilled, balanced and merged
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(21);
+		BlockAVLTree tree = new BlockAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int[] insertPercent = {90, 50, 10, 60};
+		for (int step = 0; step < 60000; step++) {
+			int k = random.nextInt(20000);
+			int op = random.nextInt(100);
+			if (step % 500 == 499 && !expected.isEmpty()) {
+				int x = Trees.randomKey(expected, random);
+				BlockAVLTree[] halves = tree.split(x);
+				assertMatches(new TreeMap<>(expected.headMap(x)), halves[0]);
+				assertMatches(new TreeMap<>(expected.tailMap(x, false)), halves[1]);
+				tree = random.nextBoolean() ? halves[0] : halves[1];
+				tree.join(x, expected.get(x), (tree == halves[0]) ? halves[1] : halves[0]);
+			} else if (op < insertPercent[step / 15000]) {
+				assertEquals(expected.containsKey(k), tree.insert(k, "v" + step) == -1, "insert " + k);
+				expected.putIfAbsent(k, "v" + step);
+			} else {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				expected.remove(k);
+			}
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 250 == 0) {
+				assertMatches(expected, tree);
+			}
+		}
+		assertMatches(expected, tree);
+	}
+
+	@Test
+	void sequentialKeysFillWholeBlocks() {
+		BlockAVLTree tree = new BlockAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int k = 0; k < 10 * BlockAVLTree.BLOCK; k++) {
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		assertMatches(expected, tree);
+		for (int k = 10 * BlockAVLTree.BLOCK - 1; k >= 0; k -= 2) {
+			tree.delete(k);
+			expected.remove(k);
+			assertMatches(expected, tree);
+		}
+	}
+
+	@Test
+	void joinCopiesATreeOfOtherSlots() {
+		Random random = new Random(22);
+		TreeMap<Integer, String> smaller = Trees.randomMap(random, 3000, 10000, "s");
+		TreeMap<Integer, String> bigger = Trees.randomMap(random, 100, 1000, "b");
+		TreeMap<Integer, String> shifted = new TreeMap<>();
+		bigger.forEach((k, value) -> shifted.put(k + 20000, value));
+		BlockAVLTree tree = treeOf(shifted);
+		tree.join(15000, "x", treeOf(smaller));
+		TreeMap<Integer, String> expected = new TreeMap<>(smaller);
+		expected.putAll(shifted);
+		expected.put(15000, "x");
+		assertMatches(expected, tree);
+	}
+
+	// the blocks of a tree copied by join go back to the trees that share them, without its info
+	@Test
+	void joinReleasesTheBlocksOfACopiedTree() throws ReflectiveOperationException {
+		TreeMap<Integer, String> expected = Trees.randomMap(new Random(23), 2000, 10000, "v");
+		BlockAVLTree[] halves = treeOf(expected).split(Trees.keys(expected)[1000]);
+		BlockAVLTree tree = new BlockAVLTree();
+		tree.insert(20000, "b");
+		tree.join(15000, "x", halves[0]);
+		assertEquals(1002, tree.size());
+		Object slots = field(halves[1], BlockAVLTree.class, "slots");
+		String[] values = (String[]) field(slots, slots.getClass(), "values");
+		assertEquals(halves[1].size(), Arrays.stream(values).filter(Objects::nonNull).count());
+	}
+
+	private static Object field(Object object, Class<?> type, String name) throws ReflectiveOperationException {
+		Field field = type.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+}
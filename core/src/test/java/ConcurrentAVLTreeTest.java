@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentAVLTreeTest {
+	private static final int KEYS = 2000;
+	private static final int WRITERS = 2;
+
+	private static void assertMatches(TreeMap<Integer, String> expected, ConcurrentAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	// applies a random change of the keys k with k % WRITERS == writer to tree and expected
+	private static void randomChange(ConcurrentAVLTree tree, TreeMap<Integer, String> expected, Random random, int writer) {
+		int k = WRITERS * random.nextInt(KEYS / WRITERS) + writer;
+		int op = random.nextInt(20);
+		if (op < 10) {
+			assertEquals(expected.containsKey(k), tree.insert(k, "v" + k) == -1, "insert " + k);
+			expected.put(k, "v" + k);
+		} else if (op < 19) {
+			assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+			expected.remove(k);
+		} else {
+			int[] batch = Trees.randomBatch(random, KEYS / WRITERS, 50);
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = WRITERS * batch[i] + writer;
+			}
+			if (random.nextBoolean()) {
+				String[] values = new String[batch.length];
+				for (int i = 0; i < batch.length; i++) {
+					values[i] = "v" + batch[i];
+					expected.put(batch[i], values[i]);
+				}
+				tree.insertAll(batch, values, null);
+			} else {
+				for (int key : batch) {
+					expected.remove(key);
+				}
+				tree.deleteAll(batch, null);
+			}
+		}
+	}
+
+	@Test
+	void singleThreadMatchesTreeMap() {
+		Random random = new Random(10);
+		ConcurrentAVLTree tree = new ConcurrentAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			randomChange(tree, expected, random, random.nextInt(WRITERS));
+			int k = random.nextInt(KEYS);
+			assertEquals(expected.get(k), tree.search(k));
+			assertEquals(expected.headMap(k).size(), tree.rank(k));
+			int hi = k + random.nextInt(100);
+			assertEquals(expected.subMap(k, true, hi, true).size(), tree.countInRange(k, hi));
+			int index = random.nextInt(expected.size() + 1);
+			assertEquals((index < expected.size()) ? expected.get(expected.keySet().toArray(new Integer[0])[index]) : null, tree.select(index));
+			if (step % 100 == 0) {
+				assertMatches(expected, tree);
+			}
+		}
+		assertMatches(expected, tree);
+		assertEquals(0, tree.countInRange(5, 4));
+		assertEquals(tree.size(), tree.countInRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+	}
+
+	// every key only ever has the info "v" + key, so a reader that sees any other info read a torn tree
+	@Test
+	void readersNeverSeeInfoThatWasNotInserted() throws Exception {
+		ConcurrentAVLTree tree = new ConcurrentAVLTree();
+		ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 2);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		try {
+			List<Future<TreeMap<Integer, String>>> writers = new ArrayList<>();
+			for (int w = 0; w < WRITERS; w++) {
+				int writer = w;
+				writers.add(executor.submit(() -> {
+					Random random = new Random(100 + writer);
+					TreeMap<Integer, String> expected = new TreeMap<>();
+					for (int step = 0; step < 30000; step++) {
+						randomChange(tree, expected, random, writer);
+					}
+					return expected;
+				}));
+			}
+			List<Future<Integer>> readers = new ArrayList<>();
+			for (int r = 0; r < 2; r++) {
+				int reader = r;
+				readers.add(executor.submit(() -> {
+					Random random = new Random(200 + reader);
+					int reads = 0;
+					while (writing.get() || reads < 1000) {
+						int k = random.nextInt(KEYS);
+						String value = tree.search(k);
+						assertTrue(value == null || value.equals("v" + k), "search(" + k + ") = " + value);
+						assertInserted(tree.min());
+						assertInserted(tree.max());
+						assertInserted(tree.select(random.nextInt(KEYS)));
+						int size = tree.size();
+						assertTrue(size >= 0 && size <= KEYS, "size " + size);
+						int rank = tree.rank(k);
+						assertTrue(rank >= 0 && rank <= k, "rank(" + k + ") = " + rank);
+						int count = tree.countInRange(k, k + 99);
+						assertTrue(count >= 0 && count <= 100, "countInRange = " + count);
+						reads++;
+					}
+					return reads;
+				}));
+			}
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (Future<TreeMap<Integer, String>> writer : writers) {
+				expected.putAll(writer.get());
+			}
+			writing.set(false);
+			for (Future<Integer> reader : readers) {
+				assertTrue(reader.get() >= 1000);
+			}
+			assertMatches(expected, tree);
+		} finally {
+			writing.set(false);
+			executor.shutdown();
+		}
+	}
+
+	private static void assertInserted(String value) {
+		assertTrue(value == null || value.startsWith("v"), "read " + value);
+	}
+
+	// while a writer holds the lock no optimistic read can start, readers wait for the read lock and see the change
+	@Test
+	void readersFallBackToTheReadLockWhileAWriterHoldsIt() throws Exception {
+		ConcurrentAVLTree tree = new ConcurrentAVLTree();
+		for (int k = 0; k < 100; k++) {
+			tree.insert(k, "v" + k);
+		}
+		StampedLock lock = field(tree, "lock");
+		AVLTree inner = field(tree, "tree");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			long stamp = lock.writeLock();
+			Future<String> search;
+			Future<Integer> size;
+			try {
+				search = executor.submit(() -> tree.search(1000));
+				size = executor.submit(tree::size);
+				inner.insert(1000, "v1000");
+				Thread.sleep(50);
+				assertFalse(search.isDone(), "a search ran while the tree was being written");
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+			assertEquals("v1000", search.get(10, TimeUnit.SECONDS));
+			assertEquals(101, (int) size.get(10, TimeUnit.SECONDS));
+			assertEquals("v1000", tree.max());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T field(ConcurrentAVLTree tree, String name) throws ReflectiveOperationException {
+		Field field = ConcurrentAVLTree.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return (T) field.get(tree);
+	}
+}
@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DurableAVLTreeTest {
+	@TempDir
+	Path dir;
+
+	private static void assertMatches(TreeMap<Integer, String> expected, DurableAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	private DurableAVLTree open(long commitMicros) throws IOException {
+		return DurableAVLTree.open(this.dir.resolve("tree.snapshot"), this.dir.resolve("tree.log"), commitMicros);
+	}
+
+	// random changes, with the tree reopened from its snapshot and log every so often
+	@Test
+	void logReplayRestoresTheTree() throws IOException {
+		Random random = new Random(7);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		DurableAVLTree tree = this.open(0);
+		try {
+			for (int step = 0; step < 5000; step++) {
+				int k = random.nextInt(1000);
+				int op = random.nextInt(100);
+				if (op < 60) {
+					tree.insert(k, "v" + step);
+					expected.putIfAbsent(k, "v" + step);
+				} else if (op < 97 || expected.isEmpty()) {
+					tree.delete(k);
+					expected.remove(k);
+				} else if (op < 99) {
+					// split, and join back the smaller half with a new middle item
+					int x = Trees.randomKey(expected, random);
+					AVLTree[] halves = tree.split(x);
+					assertEquals(0, tree.size());
+					tree.join(x, "j" + step, halves[0]);
+					expected.tailMap(x, true).clear();
+					expected.put(x, "j" + step);
+				} else {
+					tree.checkpoint();
+				}
+				if (step % 250 == 249) {
+					tree.close();
+					tree = this.open(random.nextBoolean() ? 0 : 200);
+					assertMatches(expected, tree);
+				}
+			}
+		} finally {
+			tree.close();
+		}
+		try (DurableAVLTree reopened = this.open(0)) {
+			assertMatches(expected, reopened);
+		}
+	}
+
+	@Test
+	void tornTailIsDroppedAndTruncated() throws IOException {
+		Path log = this.dir.resolve("tree.log");
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		try (DurableAVLTree tree = this.open(0)) {
+			for (int k = 0; k < 100; k++) {
+				tree.insert(k, "v" + k);
+				expected.put(k, "v" + k);
+			}
+		}
+		long complete = Files.size(log);
+		try (DurableAVLTree tree = this.open(0)) {
+			tree.insert(1000, "lost");
+		}
+		// a crash in the middle of writing the last record
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(log) - 3);
+		}
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+			assertEquals(complete, Files.size(log));
+			tree.insert(2000, "kept");
+			expected.put(2000, "kept");
+		}
+		// a record that was written whole but damaged
+		try (DurableAVLTree tree = this.open(0)) {
+			tree.insert(3000, "damaged");
+		}
+		byte[] bytes = Files.readAllBytes(log);
+		bytes[bytes.length - 6] ^= 1;
+		Files.write(log, bytes);
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+		}
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+		}
+	}
+
+	// a checkpoint replaces the snapshot before it starts the log over, so a crash between the two keeps every change
+	@Test
+	void checkpointSurvivesAReopen() throws IOException {
+		Path log = this.dir.resolve("tree.log");
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		byte[] oldLog;
+		try (DurableAVLTree tree = this.open(0)) {
+			for (int k = 0; k < 1000; k++) {
+				tree.insert(k, "v" + k);
+				expected.put(k, "v" + k);
+			}
+			oldLog = Files.readAllBytes(log);
+			tree.checkpoint();
+			assertEquals(12, Files.size(log));
+			tree.delete(5);
+			expected.remove(5);
+		}
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+			tree.checkpoint();
+		}
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+		}
+		// the snapshot was replaced, but the crash came before the log was started over
+		Files.write(log, oldLog);
+		try (DurableAVLTree tree = this.open(0)) {
+			assertMatches(expected, tree);
+			assertEquals(12, Files.size(log));
+		}
+		assertFalse(Files.exists(this.dir.resolve("tree.snapshot.tmp")));
+	}
+
+	@Test
+	void logOfAMissingSnapshotIsRejected() throws IOException {
+		try (DurableAVLTree tree = this.open(0)) {
+			tree.insert(1, "a");
+			tree.checkpoint();
+			tree.insert(2, "b");
+		}
+		Files.delete(this.dir.resolve("tree.snapshot"));
+		assertThrows(IOException.class, () -> this.open(0));
+	}
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class IntAVLTreeTest {
+
+	private static IntAVLTree<String> treeOf(TreeMap<Integer, String> map) {
+		IntAVLTree<String> tree = new IntAVLTree<>();
+		map.forEach(tree::insert);
+		return tree;
+	}
+
+	private static void assertMatches(TreeMap<Integer, String> expected, IntAVLTree<String> tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(13);
+		IntAVLTree<String> tree = new IntAVLTree<>();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			int k = random.nextInt(2000) - 1000;
+			int op = random.nextInt(50);
+			if (op < 30) {
+				assertEquals(expected.containsKey(k), tree.insert(k, "v" + step) == -1, "insert " + k);
+				expected.putIfAbsent(k, "v" + step);
+			} else if (op < 49 || expected.isEmpty()) {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				expected.remove(k);
+			} else {
+				int x = Trees.randomKey(expected, random);
+				IntAVLTree<String>[] halves = tree.split(x);
+				assertMatches(new TreeMap<>(expected.headMap(x)), halves[0]);
+				assertMatches(new TreeMap<>(expected.tailMap(x, false)), halves[1]);
+				tree = random.nextBoolean() ? halves[0] : halves[1];
+				tree.join(x, expected.get(x), (tree == halves[0]) ? halves[1] : halves[0]);
+			}
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 100 == 0) {
+				assertMatches(expected, tree);
+			}
+		}
+		assertMatches(expected, tree);
+	}
+
+	@Test
+	void joinCopiesATreeOfOtherSlots() {
+		Random random = new Random(14);
+		TreeMap<Integer, String> smaller = Trees.randomMap(random, 3000, 10000, "s");
+		TreeMap<Integer, String> bigger = new TreeMap<>();
+		for (int i = 0; i < 10; i++) {
+			bigger.put(20000 + i, "b" + i);
+		}
+		IntAVLTree<String> tree = treeOf(bigger);
+		IntAVLTree<String> other = treeOf(smaller);
+		tree.join(15000, "x", other);
+		TreeMap<Integer, String> expected = new TreeMap<>(smaller);
+		expected.putAll(bigger);
+		expected.put(15000, "x");
+		assertMatches(expected, tree);
+		assertMatches(new TreeMap<>(), other);
+		assertNotEquals(-1, tree.delete(15000));
+		expected.remove(15000);
+		assertMatches(expected, tree);
+		assertArrayEquals(Trees.values(expected), tree.infoToArray(new String[0]));
+	}
+
+	// the slots of a tree copied by join go back to the trees that share them, without its info
+	@Test
+	void joinReleasesTheSlotsOfACopiedTree() throws ReflectiveOperationException {
+		TreeMap<Integer, String> expected = Trees.randomMap(new Random(15), 2000, 10000, "v");
+		IntAVLTree<String>[] halves = treeOf(expected).split(Trees.keys(expected)[1000]);
+		AVLSlots slots = slots(halves[1]);
+		int capacity = slots.left.length;
+		IntAVLTree<String> tree = new IntAVLTree<>();
+		tree.insert(20000, "b");
+		tree.join(15000, "x", halves[0]);
+		assertEquals(1002, tree.size());
+		assertEquals(halves[1].size(), Arrays.stream(slots.value).filter(Objects::nonNull).count());
+		for (int k = 0; k < 1000; k++) {
+			halves[1].insert(10000 + k, "n" + k);
+		}
+		assertEquals(capacity, slots.left.length);
+	}
+
+	private static AVLSlots slots(IntAVLTree<?> tree) throws ReflectiveOperationException {
+		Field field = IntAVLTree.class.getDeclaredField("slots");
+		field.setAccessible(true);
+		return (AVLSlots) field.get(tree);
+	}
+}
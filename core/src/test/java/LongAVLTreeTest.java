@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class LongAVLTreeTest {
+
+	private static void assertMatches(TreeMap<Long, String> expected, LongAVLTree<String> tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty() ? null : expected.firstEntry().getValue(), tree.min());
+		assertEquals(expected.isEmpty() ? null : expected.lastEntry().getValue(), tree.max());
+		assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).toArray(), tree.keysToArray());
+		assertArrayEquals(expected.values().toArray(), tree.infoToArray());
+	}
+
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(13);
+		LongAVLTree<String> tree = new LongAVLTree<>();
+		TreeMap<Long, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			long k = (random.nextInt(2000) - 1000) * (1L << 40) + random.nextInt(3); // keys that do not fit an int
+			int op = random.nextInt(50);
+			if (op < 30) {
+				assertEquals(expected.containsKey(k), tree.insert(k, "v" + step) == -1, "insert " + k);
+				expected.putIfAbsent(k, "v" + step);
+			} else if (op < 49 || expected.isEmpty()) {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				expected.remove(k);
+			} else {
+				long x = expected.keySet().toArray(new Long[0])[random.nextInt(expected.size())];
+				LongAVLTree<String>[] halves = tree.split(x);
+				assertMatches(new TreeMap<>(expected.headMap(x)), halves[0]);
+				assertMatches(new TreeMap<>(expected.tailMap(x, false)), halves[1]);
+				tree = random.nextBoolean() ? halves[0] : halves[1];
+				tree.join(x, expected.get(x), (tree == halves[0]) ? halves[1] : halves[0]);
+			}
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 100 == 0) {
+				assertMatches(expected, tree);
+			}
+		}
+		assertMatches(expected, tree);
+	}
+
+	@Test
+	void extremeKeysKeepTheirOrder() {
+		LongAVLTree<String> tree = new LongAVLTree<>();
+		TreeMap<Long, String> expected = new TreeMap<>();
+		for (long k : new long[] {Long.MAX_VALUE, 0, Long.MIN_VALUE, -1, Integer.MAX_VALUE + 1L, Integer.MIN_VALUE - 1L}) {
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		assertMatches(expected, tree);
+		assertEquals("v" + Long.MIN_VALUE, tree.search(Long.MIN_VALUE));
+	}
+
+	// the slots of a tree copied by join go back to the trees that share them, without its info
+	@Test
+	void joinReleasesTheSlotsOfACopiedTree() throws ReflectiveOperationException {
+		LongAVLTree<String> source = new LongAVLTree<>();
+		for (long k = 0; k < 2000; k++) {
+			source.insert(k << 33, "v" + k);
+		}
+		LongAVLTree<String>[] halves = source.split(1000L << 33);
+		AVLSlots slots = slots(halves[1]);
+		int capacity = slots.left.length;
+		LongAVLTree<String> tree = new LongAVLTree<>();
+		tree.insert(Long.MIN_VALUE, "a");
+		tree.join(-1, "x", halves[1]);
+		assertEquals(1001, tree.size());
+		assertEquals(halves[0].size(), Arrays.stream(slots.value).filter(Objects::nonNull).count());
+		for (long k = 0; k < 1000; k++) {
+			halves[0].insert(-k - 1, "n" + k);
+		}
+		assertEquals(capacity, slots.left.length);
+	}
+
+	private static AVLSlots slots(LongAVLTree<?> tree) throws ReflectiveOperationException {
+		Field field = LongAVLTree.class.getDeclaredField("slots");
+		field.setAccessible(true);
+		return (AVLSlots) field.get(tree);
+	}
+}
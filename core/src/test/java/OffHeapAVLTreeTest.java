@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapAVLTreeTest {
+
+	private static void assertMatches(TreeMap<Integer, String> expected, OffHeapAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	// info of 0 to 40 characters, some of them not ASCII
+	private static String randomValue(Random random) {
+		StringBuilder value = new StringBuilder();
+		for (int i = random.nextInt(41); i > 0; i--) {
+			value.append(random.nextInt(10) == 0 ? 'é' : (char) ('a' + random.nextInt(26)));
+		}
+		return value.toString();
+	}
+
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(3);
+		OffHeapAVLTree tree = new OffHeapAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		try {
+			for (int step = 0; step < 20000; step++) {
+				int k = random.nextInt(2000);
+				int op = random.nextInt(50);
+				if (op < 30) {
+					String value = randomValue(random);
+					assertEquals(expected.containsKey(k), tree.insert(k, value) == -1, "insert " + k);
+					expected.putIfAbsent(k, value);
+				} else if (op < 49 || expected.isEmpty()) {
+					assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+					expected.remove(k);
+				} else {
+					int x = Trees.randomKey(expected, random);
+					OffHeapAVLTree[] halves = tree.split(x);
+					assertMatches(new TreeMap<>(expected.headMap(x)), halves[0]);
+					assertMatches(new TreeMap<>(expected.tailMap(x, false)), halves[1]);
+					tree = random.nextBoolean() ? halves[0] : halves[1];
+					tree.join(x, expected.get(x), (tree == halves[0]) ? halves[1] : halves[0]);
+				}
+				assertEquals(expected.get(k), tree.search(k));
+				if (step % 100 == 0) {
+					assertMatches(expected, tree);
+				}
+			}
+			assertMatches(expected, tree);
+		} finally {
+			tree.close();
+		}
+	}
+
+	// the halves of a split share the store, it is dropped with the last of them and the collector frees it
+	@Test
+	void closedTreesLeaveTheirMemoryToTheCollector() {
+		for (int i = 0; i < 200; i++) {
+			OffHeapAVLTree tree = new OffHeapAVLTree();
+			for (int k = 0; k < 100; k++) {
+				tree.insert(k, "v" + k);
+			}
+			OffHeapAVLTree[] halves = tree.split(50);
+			halves[0].close();
+			assertEquals("v99", halves[1].max());
+			halves[1].close();
+			halves[1].close();
+			assertThrows(IllegalStateException.class, halves[1]::empty);
+		}
+	}
+
+	@Test
+	void joinCopiesATreeOfAnotherStore() {
+		Random random = new Random(4);
+		TreeMap<Integer, String> smaller = Trees.randomMap(random, 3000, 10000, "s");
+		OffHeapAVLTree other = new OffHeapAVLTree();
+		smaller.forEach(other::insert);
+		try (OffHeapAVLTree tree = new OffHeapAVLTree()) {
+			tree.insert(20000, "b");
+			tree.join(15000, "x", other);
+			TreeMap<Integer, String> expected = new TreeMap<>(smaller);
+			expected.put(15000, "x");
+			expected.put(20000, "b");
+			assertMatches(expected, tree);
+		}
+	}
+
+	@Test
+	void deletedInfoBytesAreReused() {
+		Random random = new Random(5);
+		try (OffHeapAVLTree tree = new OffHeapAVLTree()) {
+			for (int k = 0; k < 10000; k++) {
+				tree.insert(k, randomValue(random));
+			}
+			long filled = tree.valueBytes();
+			for (int step = 0; step < 200000; step++) {
+				int k = random.nextInt(10000);
+				if (tree.delete(k) != -1) {
+					tree.insert(k, randomValue(random));
+				}
+			}
+			// churn with the same sizes of info takes free blocks of the same size classes
+			assertTrue(tree.valueBytes() <= filled * 5 / 4, tree.valueBytes() + " bytes after churn, " + filled + " after the first fill");
+			assertEquals(10000, tree.size());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class PersistentAVLTreeTest {
+
+	private static void assertMatches(TreeMap<Integer, String> expected, PersistentAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	@Test
+	void randomInsertDeleteSplitJoinMatchTreeMap() {
+		Random random = new Random(16);
+		PersistentAVLTree tree = new PersistentAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int step = 0; step < 20000; step++) {
+			int k = random.nextInt(2000);
+			int op = random.nextInt(50);
+			if (op < 30) {
+				assertEquals(expected.containsKey(k), tree.insert(k, "v" + step) == -1, "insert " + k);
+				expected.putIfAbsent(k, "v" + step);
+			} else if (op < 49 || expected.isEmpty()) {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				expected.remove(k);
+			} else {
+				int x = Trees.randomKey(expected, random);
+				PersistentAVLTree[] halves = tree.split(x);
+				assertMatches(new TreeMap<>(expected.headMap(x)), halves[0]);
+				assertMatches(new TreeMap<>(expected.tailMap(x, false)), halves[1]);
+				assertMatches(expected, tree); // split does not change the tree
+				PersistentAVLTree joined = random.nextBoolean() ? halves[0] : halves[1];
+				PersistentAVLTree other = (joined == halves[0]) ? halves[1] : halves[0];
+				joined.join(x, expected.get(x), other);
+				assertMatches(expected, joined);
+				assertMatches(new TreeMap<>((other == halves[0]) ? expected.headMap(x) : expected.tailMap(x, false)), other);
+				tree = joined;
+			}
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 100 == 0) {
+				assertMatches(expected, tree);
+			}
+		}
+		assertMatches(expected, tree);
+	}
+
+	@Test
+	void snapshotsKeepTheirVersion() {
+		Random random = new Random(17);
+		PersistentAVLTree tree = new PersistentAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		List<PersistentAVLTree> snapshots = new ArrayList<>();
+		List<TreeMap<Integer, String>> versions = new ArrayList<>();
+		for (int step = 0; step < 10000; step++) {
+			int k = random.nextInt(500);
+			if (random.nextInt(3) > 0) {
+				tree.insert(k, "v" + step);
+				expected.putIfAbsent(k, "v" + step);
+			} else {
+				tree.delete(k);
+				expected.remove(k);
+			}
+			if (step % 500 == 0) {
+				snapshots.add(tree.snapshot());
+				versions.add(new TreeMap<>(expected));
+			}
+		}
+		for (int i = 0; i < snapshots.size(); i++) {
+			assertMatches(versions.get(i), snapshots.get(i));
+		}
+		// a snapshot changes without changing the tree it was taken from
+		PersistentAVLTree snapshot = tree.snapshot();
+		snapshot.insert(1000, "new");
+		snapshot.delete(expected.firstKey());
+		assertMatches(expected, tree);
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class ShardedAVLTreeTest {
+
+	private static void assertMatches(TreeMap<Integer, String> expected, ShardedAVLTree tree) {
+		assertEquals(expected.size(), tree.size());
+		assertEquals(expected.isEmpty(), tree.empty());
+		Trees.assertEdges(expected, tree.min(), tree.max());
+		Trees.assertItems(expected, tree.keysToArray(), tree.infoToArray());
+	}
+
+	// small shards, so inserts split them and rebalance joins them
+	@Test
+	void randomInsertDeleteMatchTreeMapAcrossShardSplitsAndJoins() {
+		Random random = new Random(12);
+		ShardedAVLTree tree = new ShardedAVLTree(4, 64);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int most = 0;
+		for (int step = 0; step < 40000; step++) {
+			int k = random.nextInt(5000) - 2500;
+			boolean inserting = (step < 20000) ? random.nextInt(4) > 0 : random.nextInt(4) == 0;
+			if (inserting) {
+				assertEquals(expected.containsKey(k), tree.insert(k, "v" + step) == -1, "insert " + k);
+				expected.putIfAbsent(k, "v" + step);
+			} else {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				expected.remove(k);
+			}
+			assertEquals(expected.get(k), tree.search(k));
+			if (step % 1000 == 999) {
+				tree.rebalance();
+				most = Math.max(most, tree.shards());
+				assertMatches(expected, tree);
+			}
+		}
+		assertTrue(most > 4, "no shard was split");
+		assertTrue(tree.shards() < most, "no shards were joined");
+		assertMatches(expected, tree);
+		assertThrows(IllegalArgumentException.class, () -> new ShardedAVLTree(0, 64));
+	}
+
+	// an item with null info is still the min or max, the shards after or before it must not be asked
+	@Test
+	void minAndMaxOfNullInfo() {
+		ShardedAVLTree tree = new ShardedAVLTree(4, 64);
+		tree.insert(Integer.MIN_VALUE + 5, null);
+		tree.insert(10, "ten");
+		assertNull(tree.min());
+		assertEquals("ten", tree.max());
+		tree.insert(Integer.MAX_VALUE - 5, null);
+		assertNull(tree.max());
+		tree.delete(Integer.MIN_VALUE + 5);
+		assertEquals("ten", tree.min());
+		tree.delete(10);
+		assertNull(tree.min());
+		assertEquals(1, tree.size());
+	}
+
+	@Test
+	void concurrentWritersAndReadersOfDisjointKeys() throws Exception {
+		ShardedAVLTree tree = new ShardedAVLTree(8, 256);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 20000; i++) {
+						int k = 4 * i + thread;
+						tree.insert(k, "v" + k);
+						assertEquals("v" + k, tree.search(k));
+						if (i % 3 == 0) {
+							tree.delete(k);
+						}
+						if (i % 2000 == 0) {
+							tree.rebalance();
+							int[] keys = tree.keysToArray();
+							for (int j = 1; j < keys.length; j++) {
+								assertTrue(keys[j - 1] < keys[j]);
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int t = 0; t < 4; t++) {
+			for (int i = 0; i < 20000; i++) {
+				if (i % 3 != 0) {
+					expected.put(4 * i + t, "v" + (4 * i + t));
+				}
+			}
+		}
+		assertMatches(expected, tree);
+	}
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * Trees
+ *
+ * Helpers of the differential tests: every tree is checked against a TreeMap
+ * that receives the same operations.
+ *
+ */
+final class Trees {
+	private Trees() {
+	}
+
+	static int[] keys(Map<Integer, String> map) {
+		return map.keySet().stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	static String[] values(Map<Integer, String> map) {
+		return map.values().toArray(new String[0]);
+	}
+
+	// checks that a tree listed the keys and info of expected, in key order
+	static void assertItems(TreeMap<Integer, String> expected, int[] keys, Object[] values) {
+		assertArrayEquals(keys(expected), keys);
+		assertArrayEquals(values(expected), values);
+	}
+
+	// checks the min and max info of a tree against expected
+	static void assertEdges(TreeMap<Integer, String> expected, Object min, Object max) {
+		assertEquals(expected.isEmpty() ? null : expected.firstEntry().getValue(), min);
+		assertEquals(expected.isEmpty() ? null : expected.lastEntry().getValue(), max);
+	}
+
+	// returns a key of expected chosen at random, expected is not empty
+	static int randomKey(TreeMap<Integer, String> expected, Random random) {
+		Integer k = expected.ceilingKey(random.nextInt(expected.lastKey() - expected.firstKey() + 1) + expected.firstKey());
+		return (k != null) ? k : expected.lastKey();
+	}
+
+	// returns a map of about size random keys in [0, range) with info prefix + key
+	static TreeMap<Integer, String> randomMap(Random random, int size, int range, String prefix) {
+		TreeMap<Integer, String> map = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			int k = random.nextInt(range);
+			map.put(k, prefix + k);
+		}
+		return map;
+	}
+
+	// returns a strictly increasing batch of keys in [0, range), either scattered or a run of consecutive keys
+	static int[] randomBatch(Random random, int range, int maxLength) {
+		int length = random.nextInt(maxLength) + 1;
+		if (random.nextBoolean()) {
+			int start = random.nextInt(range);
+			int[] batch = new int[Math.min(length, range - start)];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = start + i;
+			}
+			return batch;
+		}
+		return random.ints(length, 0, range).sorted().distinct().toArray();
+	}
+}